@@ -0,0 +1,96 @@
+package ru.r2cloud.ossclient;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs blocking operations of the delegate on the executor. By default each
+ * operation gets its own virtual thread (JDK 21+), so the number of concurrent
+ * operations is limited only by the connection pool of the delegate. On older
+ * JDKs operations run on at most maxThreads platform threads.
+ */
+public class AsyncOssClient {
+
+	private OssClient delegate;
+	private ExecutorService executor;
+	private boolean ownExecutor;
+	private int maxThreads = 64;
+
+	public void start() {
+		if (executor == null) {
+			executor = OssExecutors.newVirtualThreadExecutor("oss-async", maxThreads);
+			ownExecutor = true;
+		}
+	}
+
+	public void stop() {
+		if (ownExecutor && executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	public CompletableFuture<Void> submit(File file, String path) {
+		return execute(() -> {
+			delegate.submit(file, path);
+			return null;
+		});
+	}
+
+	public CompletableFuture<Void> delete(String path) {
+		return execute(() -> {
+			delegate.delete(path);
+			return null;
+		});
+	}
+
+	public CompletableFuture<Void> download(String path, Callback f) {
+		return execute(() -> {
+			delegate.download(path, f);
+			return null;
+		});
+	}
+
+	public CompletableFuture<List<FileEntry>> listFiles(ListRequest req) {
+		return execute(() -> delegate.listFiles(req));
+	}
+
+	private <T> CompletableFuture<T> execute(Operation<T> operation) {
+		CompletableFuture<T> result = new CompletableFuture<>();
+		try {
+			executor.execute(() -> {
+				try {
+					result.complete(operation.apply());
+				} catch (Throwable e) {
+					result.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			result.completeExceptionally(e);
+		}
+		return result;
+	}
+
+	public void setDelegate(OssClient delegate) {
+		this.delegate = delegate;
+	}
+
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * @param maxThreads - max number of platform threads if virtual threads
+	 *                   are not supported. Ignored if executor is set
+	 */
+	public void setMaxThreads(int maxThreads) {
+		this.maxThreads = maxThreads;
+	}
+
+	private interface Operation<T> {
+
+		T apply() throws OssException;
+	}
+}
@@ -0,0 +1,67 @@
+package ru.r2cloud.ossclient;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Client-wide limit of bytes and requests per second. Can be shared between
+ * several clients. Traffic classes (priorities or tenants) share the limit
+ * proportionally to their weights, so bulk transfers use only bandwidth not
+ * needed by latency-sensitive classes. Limits and weights can be changed at
+ * runtime
+ */
+public class BandwidthLimiter {
+
+	public static final String INTERACTIVE = "interactive";
+	public static final String BULK = "bulk";
+
+	private final FairTokenBucket bytes = new FairTokenBucket();
+	private final FairTokenBucket requests = new FairTokenBucket();
+	private final Map<String, Integer> weights = new ConcurrentHashMap<>();
+
+	public BandwidthLimiter() {
+		weights.put(INTERACTIVE, 4);
+		weights.put(BULK, 1);
+	}
+
+	public void acquireBytes(String trafficClass, long amount) throws InterruptedException {
+		bytes.acquire(trafficClass, getWeight(trafficClass), amount);
+	}
+
+	public void acquireRequest(String trafficClass) throws InterruptedException {
+		requests.acquire(trafficClass, getWeight(trafficClass), 1);
+	}
+
+	/**
+	 * @param bytesPerSecond - 0 or negative to disable the limit
+	 */
+	public void setBytesPerSecond(long bytesPerSecond) {
+		bytes.setRate(bytesPerSecond);
+	}
+
+	public long getBytesPerSecond() {
+		return bytes.getRate();
+	}
+
+	/**
+	 * @param requestsPerSecond - 0 or negative to disable the limit
+	 */
+	public void setRequestsPerSecond(long requestsPerSecond) {
+		requests.setRate(requestsPerSecond);
+	}
+
+	public long getRequestsPerSecond() {
+		return requests.getRate();
+	}
+
+	public void setWeight(String trafficClass, int weight) {
+		if (weight <= 0) {
+			throw new IllegalArgumentException("weight should be positive: " + weight);
+		}
+		weights.put(trafficClass, weight);
+	}
+
+	public int getWeight(String trafficClass) {
+		return weights.getOrDefault(trafficClass, 1);
+	}
+}
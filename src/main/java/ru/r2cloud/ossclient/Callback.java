@@ -5,5 +5,15 @@ import java.io.InputStream;
 public interface Callback {
 
 	void onData(InputStream is);
-	
+
+	/**
+	 * Called before {@link #onData(InputStream)} with object attributes,
+	 * content type and user metadata if backend provides them
+	 * 
+	 * @param metadata - object attributes
+	 */
+	default void onMetadata(FileEntry metadata) {
+		// do nothing
+	}
+
 }
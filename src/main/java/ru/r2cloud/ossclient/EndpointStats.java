@@ -0,0 +1,70 @@
+package ru.r2cloud.ossclient;
+
+import java.util.Arrays;
+
+/**
+ * Latency and health of single endpoint
+ */
+class EndpointStats {
+
+	private static final int SAMPLES = 128;
+
+	private final double alpha;
+	private final long[] samples = new long[SAMPLES];
+	private int sampleIndex;
+	private int sampleCount;
+	private double ewma;
+	private int consecutiveFailures;
+	private long unhealthyUntil;
+
+	EndpointStats(double alpha) {
+		this.alpha = alpha;
+	}
+
+	synchronized void onSuccess(long latencyMillis) {
+		if (sampleCount == 0) {
+			ewma = latencyMillis;
+		} else {
+			ewma = alpha * latencyMillis + (1 - alpha) * ewma;
+		}
+		samples[sampleIndex] = latencyMillis;
+		sampleIndex = (sampleIndex + 1) % SAMPLES;
+		sampleCount = Math.min(sampleCount + 1, SAMPLES);
+		consecutiveFailures = 0;
+		unhealthyUntil = 0;
+	}
+
+	synchronized void onFailure(int failureThreshold, long unhealthyPeriodMillis) {
+		consecutiveFailures++;
+		if (consecutiveFailures >= failureThreshold) {
+			unhealthyUntil = System.currentTimeMillis() + unhealthyPeriodMillis;
+		}
+	}
+
+	synchronized boolean isHealthy() {
+		return System.currentTimeMillis() >= unhealthyUntil;
+	}
+
+	/**
+	 * @return average latency or -1 if there are no samples
+	 */
+	synchronized double getEwma() {
+		if (sampleCount == 0) {
+			return -1;
+		}
+		return ewma;
+	}
+
+	/**
+	 * @return latency percentile or -1 if there are not enough samples
+	 */
+	synchronized long getPercentile(double percentile) {
+		if (sampleCount < 10) {
+			return -1;
+		}
+		long[] sorted = Arrays.copyOf(samples, sampleCount);
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(percentile * sampleCount) - 1;
+		return sorted[Math.max(0, Math.min(index, sampleCount - 1))];
+	}
+}
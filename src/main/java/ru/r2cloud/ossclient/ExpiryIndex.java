@@ -0,0 +1,210 @@
+package ru.r2cloud.ossclient;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Expiration time of objects persisted as append-only log. Each record is
+ * "+ expiresAt name" or "- name". Names are polled from the queue ordered by
+ * time, so the cost of a sweep depends only on the number of expired objects.
+ * The log is compacted on open and created only when the first expiration is
+ * added.
+ */
+class ExpiryIndex implements AutoCloseable {
+
+	private static final char ADD = '+';
+	private static final char REMOVE = '-';
+
+	private final File file;
+	private final Map<String, Expiry> byName = new ConcurrentHashMap<>();
+	// might contain replaced entries. they are skipped on poll
+	private final PriorityQueue<Expiry> queue = new PriorityQueue<>(Comparator.comparingLong(e -> e.expiresAt));
+	private final Lock lock = new ReentrantLock();
+	private Writer writer;
+
+	ExpiryIndex(File file) {
+		this.file = file;
+	}
+
+	void open() throws IOException {
+		if (!file.exists()) {
+			return;
+		}
+		try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+			String curLine = null;
+			while ((curLine = r.readLine()) != null) {
+				// last record might be partially written
+				if (curLine.length() < 3 || curLine.charAt(1) != ' ') {
+					continue;
+				}
+				if (curLine.charAt(0) == ADD) {
+					int index = curLine.indexOf(' ', 2);
+					if (index < 0) {
+						continue;
+					}
+					String name = URLDecoder.decode(curLine.substring(index + 1), StandardCharsets.UTF_8);
+					byName.put(name, new Expiry(name, Long.parseLong(curLine.substring(2, index))));
+				} else if (curLine.charAt(0) == REMOVE) {
+					byName.remove(URLDecoder.decode(curLine.substring(2), StandardCharsets.UTF_8));
+				}
+			}
+		}
+		queue.addAll(byName.values());
+		// the suffix hides temp file from FileOssClient listing
+		File temp = new File(file.getParentFile(), file.getName() + FileOssClient.TEMP_SUFFIX);
+		try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8))) {
+			for (Expiry cur : byName.values()) {
+				w.append(ADD).append(' ').append(String.valueOf(cur.expiresAt)).append(' ').append(URLEncoder.encode(cur.name, StandardCharsets.UTF_8)).append('\n');
+			}
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	void put(String name, long expiresAt) throws IOException {
+		lock.lock();
+		try {
+			Expiry expiry = new Expiry(name, expiresAt);
+			append(ADD + " " + expiresAt + " " + URLEncoder.encode(name, StandardCharsets.UTF_8));
+			byName.put(name, expiry);
+			queue.add(expiry);
+			// objects re-submitted many times
+			if (queue.size() > byName.size() * 2 + 1024) {
+				queue.clear();
+				queue.addAll(byName.values());
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void remove(String name) throws IOException {
+		// most objects don't expire
+		if (!byName.containsKey(name)) {
+			return;
+		}
+		lock.lock();
+		try {
+			if (byName.remove(name) != null) {
+				append(REMOVE + " " + URLEncoder.encode(name, StandardCharsets.UTF_8));
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return expiration time in millis or null if object doesn't expire
+	 */
+	Long get(String name) {
+		Expiry expiry = byName.get(name);
+		return expiry != null ? expiry.expiresAt : null;
+	}
+
+	boolean isExpired(String name, long now) {
+		Expiry expiry = byName.get(name);
+		return expiry != null && expiry.expiresAt <= now;
+	}
+
+	/**
+	 * Take expired names out of the queue. Names stay in the index until
+	 * removed, so they can be returned into the queue with
+	 * {@link #requeue(String)} if delete failed
+	 *
+	 * @param now - current time in millis
+	 * @param max - maximum number of names
+	 * @return names in order of expiration
+	 */
+	List<String> pollExpired(long now, int max) {
+		List<String> result = new ArrayList<>();
+		lock.lock();
+		try {
+			while (result.size() < max) {
+				Expiry head = queue.peek();
+				if (head == null || head.expiresAt > now) {
+					break;
+				}
+				queue.poll();
+				// replaced or removed
+				if (byName.get(head.name) != head) {
+					continue;
+				}
+				result.add(head.name);
+			}
+		} finally {
+			lock.unlock();
+		}
+		return result;
+	}
+
+	void requeue(String name) {
+		lock.lock();
+		try {
+			Expiry expiry = byName.get(name);
+			if (expiry != null) {
+				queue.add(expiry);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	int size() {
+		return byName.size();
+	}
+
+	// guarded by lock
+	private void append(String record) throws IOException {
+		if (writer == null) {
+			writer = Channels.newWriter(FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND), StandardCharsets.UTF_8);
+		}
+		writer.append(record).append('\n');
+		writer.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			if (writer != null) {
+				writer.close();
+				writer = null;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static class Expiry {
+
+		private final String name;
+		private final long expiresAt;
+
+		Expiry(String name, long expiresAt) {
+			this.name = name;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
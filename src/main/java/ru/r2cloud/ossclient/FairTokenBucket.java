@@ -0,0 +1,126 @@
+package ru.r2cloud.ossclient;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Token bucket shared by several traffic classes. When the bucket is empty,
+ * waiting requests are served in weighted fair order: each class gets its
+ * share of the rate proportional to its weight, idle share goes to others.
+ */
+class FairTokenBucket {
+
+	private final Lock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+	private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+	private final Map<String, Double> lastFinish = new HashMap<>();
+
+	private long rate;
+	private double tokens;
+	private long lastRefill = System.nanoTime();
+	private double virtualTime;
+	private long sequence;
+
+	void setRate(long rate) {
+		lock.lock();
+		try {
+			refill();
+			this.rate = rate;
+			tokens = Math.min(tokens, getCapacity());
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	long getRate() {
+		lock.lock();
+		try {
+			return rate;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void acquire(String trafficClass, int weight, long amount) throws InterruptedException {
+		lock.lock();
+		try {
+			if (rate <= 0) {
+				return;
+			}
+			double start = Math.max(virtualTime, lastFinish.getOrDefault(trafficClass, 0.0));
+			Waiter current = new Waiter(start + (double) amount / Math.max(weight, 1), sequence++);
+			lastFinish.put(trafficClass, current.tag);
+			waiters.add(current);
+			try {
+				while (true) {
+					// rate might be changed while waiting
+					if (rate <= 0) {
+						break;
+					}
+					refill();
+					if (waiters.peek() == current && tokens >= 0) {
+						// allow debt, so chunks bigger than capacity are still
+						// possible
+						tokens -= amount;
+						virtualTime = current.tag;
+						break;
+					}
+					if (waiters.peek() == current) {
+						long waitNanos = (long) Math.ceil(-tokens * TimeUnit.SECONDS.toNanos(1) / rate);
+						changed.awaitNanos(Math.max(waitNanos, 1));
+					} else {
+						changed.await();
+					}
+				}
+			} finally {
+				waiters.remove(current);
+				if (waiters.isEmpty()) {
+					// nobody is waiting. new classes shouldn't start from the past
+					lastFinish.clear();
+				}
+				changed.signalAll();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void refill() {
+		long now = System.nanoTime();
+		if (rate > 0) {
+			tokens = Math.min(getCapacity(), tokens + (double) (now - lastRefill) * rate / TimeUnit.SECONDS.toNanos(1));
+		}
+		lastRefill = now;
+	}
+
+	// allow burst of 100ms
+	private double getCapacity() {
+		return Math.max(rate / 10.0, 1.0);
+	}
+
+	private static class Waiter implements Comparable<Waiter> {
+
+		private final double tag;
+		private final long sequence;
+
+		Waiter(double tag, long sequence) {
+			this.tag = tag;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(Waiter o) {
+			int result = Double.compare(tag, o.tag);
+			if (result != 0) {
+				return result;
+			}
+			return Long.compare(sequence, o.sequence);
+		}
+	}
+}
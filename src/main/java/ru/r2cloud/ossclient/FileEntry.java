@@ -1,5 +1,7 @@
 package ru.r2cloud.ossclient;
 
+import java.util.Map;
+
 public class FileEntry {
 
 	private long bytes;
@@ -7,6 +9,7 @@ public class FileEntry {
 	private String hash;
 	private String lastModified;
 	private String name;
+	private Map<String, String> metadata;
 
 	public long getBytes() {
 		return bytes;
@@ -40,6 +43,18 @@ public class FileEntry {
 		this.contentType = contentType;
 	}
 
+	/**
+	 * @return user metadata with lower case keys. null if backend didn't
+	 *         return it, for example in listing
+	 */
+	public Map<String, String> getMetadata() {
+		return metadata;
+	}
+
+	public void setMetadata(Map<String, String> metadata) {
+		this.metadata = metadata;
+	}
+
 	public String getLastModified() {
 		return lastModified;
 	}
@@ -2,17 +2,40 @@ package ru.r2cloud.ossclient;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitResult;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableSet;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,52 +44,201 @@ public class FileOssClient implements OssClient {
 
 	private static final Logger LOG = LoggerFactory.getLogger(FileOssClient.class);
 
+	private static final String INDEX_FILENAME = "names.log";
+	static final String TEMP_SUFFIX = ".oss-tmp";
+	private static final String METADATA_SUFFIX = ".oss-meta";
+	private static final String CONTENT_TYPE = "Content-Type";
+	private static final String XATTR_CONTENT_TYPE = "oss.content-type";
+	private static final String XATTR_METADATA_PREFIX = "oss.meta.";
+	private static final String SIDECAR_METADATA_PREFIX = "meta.";
+	// hidden by the flat listing. sidecars always start with "." so object
+	// names never map to it
+	static final String EXPIRY_FILENAME = "expiry" + METADATA_SUFFIX;
+	// sidecar of the "/expiry" object in the flat layout
+	private static final String LEGACY_EXPIRY_FILENAME = ".expiry" + METADATA_SUFFIX;
+
 	private String basePath;
 	private File basePathDir;
+	private boolean sharded;
+	private int shardLevels = 2;
+	private NameIndex index;
+	private boolean metadataInSidecar;
+	private ExpiryIndex expiry;
+	private long sweepIntervalMillis = 10_000;
+	private int sweepBatchSize = 1000;
+	private BandwidthLimiter sweepLimiter;
+	// started on the first expiring object, so stores without expiration
+	// don't have the thread
+	private Thread sweeper;
+	private boolean sweeperAllowed;
+	private final Lock sweeperLock = new ReentrantLock();
+	// sweeper checks expiration and deletes under the lock of the path, so
+	// concurrent submit is never deleted
+	private final Lock[] pathLocks = new Lock[64];
+
+	public FileOssClient() {
+		for (int i = 0; i < pathLocks.length; i++) {
+			pathLocks[i] = new ReentrantLock();
+		}
+	}
 
 	public void start() {
 		basePathDir = initDir(basePath);
+		if (!metadataInSidecar && !isXattrSupported(basePathDir)) {
+			LOG.info("extended attributes are not supported. metadata is stored in sidecar files");
+			metadataInSidecar = true;
+		}
+		if (sharded) {
+			index = new NameIndex(new File(basePathDir, INDEX_FILENAME));
+			try {
+				index.open();
+			} catch (IOException e) {
+				throw new IllegalStateException("unable to read index", e);
+			}
+		}
+		File expiryFile = new File(basePathDir, EXPIRY_FILENAME);
+		expiry = new ExpiryIndex(expiryFile);
+		try {
+			File legacy = new File(basePathDir, LEGACY_EXPIRY_FILENAME);
+			if (!expiryFile.exists() && legacy.exists()) {
+				Files.move(legacy.toPath(), expiryFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			}
+			expiry.open();
+		} catch (IOException e) {
+			throw new IllegalStateException("unable to read expiry index", e);
+		}
+		sweeperLock.lock();
+		try {
+			sweeperAllowed = true;
+		} finally {
+			sweeperLock.unlock();
+		}
+		if (expiry.size() > 0) {
+			startSweeper();
+		}
+	}
+
+	public void stop() {
+		Thread current;
+		sweeperLock.lock();
+		try {
+			sweeperAllowed = false;
+			current = sweeper;
+			sweeper = null;
+		} finally {
+			sweeperLock.unlock();
+		}
+		if (current != null) {
+			current.interrupt();
+			try {
+				current.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (expiry != null) {
+			try {
+				expiry.close();
+			} catch (IOException e) {
+				LOG.info("unable to close expiry index", e);
+			}
+		}
+		if (index != null) {
+			try {
+				index.close();
+			} catch (IOException e) {
+				LOG.info("unable to close index", e);
+			}
+		}
 	}
 
 	@Override
 	public List<FileEntry> listFiles(final ListRequest req) throws OssException {
 		LOG.info("listing: {}", req);
+		if (sharded) {
+			return listSharded(req);
+		}
 
-		List<File> sorted = new ArrayList<>();
-		try {
-			Files.walkFileTree(basePathDir.toPath(), new SimpleFileVisitor<Path>() {
-				@Override
-				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-					if (req.getPrefix() == null || file.toFile().getAbsolutePath().startsWith(basePathDir.getAbsolutePath() + req.getPrefix())) {
-						sorted.add(file.toFile());
-					}
-					return FileVisitResult.CONTINUE;
+		List<FileEntry> result = new ArrayList<FileEntry>();
+		listFlat(basePathDir, "", req, Math.min(req.getLimit(), 10000), result);
+		return result;
+	}
+
+	// visits names in ascending order and skips directories outside of prefix
+	// and before marker, so the page doesn't need the whole tree. returns
+	// true when the page is complete
+	private boolean listFlat(File dir, String dirName, ListRequest req, int limit, List<FileEntry> result) {
+		File[] children = dir.listFiles();
+		if (children == null) {
+			return false;
+		}
+		String prefix = req.getPrefix();
+		String marker = req.getMarker();
+		// names in the directory "a" start with "a/", so the directory is
+		// sorted as "a/" to keep the order of full names
+		Map<String, File> sorted = new TreeMap<>();
+		for (File cur : children) {
+			if (cur.isDirectory()) {
+				sorted.put(dirName + "/" + cur.getName() + "/", cur);
+			} else if (!isReserved(cur)) {
+				sorted.put(dirName + "/" + cur.getName(), cur);
+			}
+		}
+		for (Entry<String, File> cur : sorted.entrySet()) {
+			String name = cur.getKey();
+			if (prefix != null && !name.startsWith(prefix)) {
+				if (name.compareTo(prefix) > 0) {
+					// the rest is after the prefix too
+					return true;
 				}
-			});
-		} catch (IOException e) {
-			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to list", e);
+				// directory might contain the prefix
+				if (!prefix.startsWith(name)) {
+					continue;
+				}
+			}
+			if (name.endsWith("/")) {
+				// the whole directory is before the marker
+				if (marker != null && name.compareTo(marker) < 0 && !marker.startsWith(name)) {
+					continue;
+				}
+				if (listFlat(cur.getValue(), name.substring(0, name.length() - 1), req, limit, result)) {
+					return true;
+				}
+				continue;
+			}
+			// same as swift: return only names after the marker. marker might not exist
+			if (marker != null && name.compareTo(marker) <= 0) {
+				continue;
+			}
+			result.add(convert(cur.getValue()));
+			if (result.size() >= limit) {
+				return true;
+			}
 		}
-		boolean foundMarker = false;
+		return false;
+	}
 
-		File markerFile;
-		if (req.getMarker() != null) {
-			markerFile = new File(basePathDir.getAbsolutePath() + req.getMarker());
+	private List<FileEntry> listSharded(ListRequest req) {
+		String prefix = req.getPrefix();
+		String marker = req.getMarker();
+		NavigableSet<String> candidates;
+		if (marker != null && (prefix == null || marker.compareTo(prefix) >= 0)) {
+			candidates = index.tailSet(marker, false);
 		} else {
-			markerFile = null;
+			candidates = index.tailSet(prefix, true);
 		}
-
-		Collections.sort(sorted);
-
 		List<FileEntry> result = new ArrayList<FileEntry>();
-		for (File cur : sorted) {
-			if (markerFile != null && !foundMarker) {
-				if (cur.getAbsolutePath().equals(markerFile.getAbsolutePath())) {
-					foundMarker = true;
-				}
-				continue;
+		for (String cur : candidates) {
+			// names are sorted, so the rest doesn't match either
+			if (prefix != null && !cur.startsWith(prefix)) {
+				break;
 			}
-
-			result.add(convert(cur));
+			File file = getFile(cur);
+			FileEntry entry = new FileEntry();
+			entry.setBytes(file.length());
+			entry.setName(cur);
+			entry.setLastModified(new Date(file.lastModified()).toString());
+			result.add(entry);
 			if (result.size() >= req.getLimit() || result.size() >= 10000) {
 				break;
 			}
@@ -88,9 +260,13 @@ public class FileOssClient implements OssClient {
 	@Override
 	public void delete(String path) throws OssException {
 		LOG.info("deleting: {}", path);
+		if (sharded) {
+			deleteSharded(path);
+			return;
+		}
 
 		File newPath = new File(basePath + path);
-		if (!newPath.exists()) {
+		if (!newPath.exists() || isReserved(newPath)) {
 			throw new OssException(404, "path not found");
 		}
 		try {
@@ -107,40 +283,656 @@ public class FileOssClient implements OssClient {
 					return FileVisitResult.CONTINUE;
 				}
 			});
+			// sidecar of the single object. sidecars in directory are deleted above
+			Files.deleteIfExists(sidecarFor(newPath));
+			// expiration of objects in directory is removed by sweeper
+			expiry.remove(path);
 		} catch (IOException e1) {
 			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to delete path", e1);
 		}
 	}
 
+	private void deleteSharded(String path) throws OssException {
+		List<String> toDelete = new ArrayList<>();
+		if (index.contains(path)) {
+			toDelete.add(path);
+		} else {
+			// same as in flat layout: delete everything in the "directory"
+			String dir = path.endsWith("/") ? path : path + "/";
+			for (String cur : index.tailSet(dir, true)) {
+				if (!cur.startsWith(dir)) {
+					break;
+				}
+				toDelete.add(cur);
+			}
+		}
+		if (toDelete.isEmpty()) {
+			throw new OssException(404, "path not found");
+		}
+		try {
+			for (String cur : toDelete) {
+				// remove from index first. orphan file is overwritten on the
+				// next submit
+				index.remove(cur);
+				Files.deleteIfExists(getFile(cur).toPath());
+				Files.deleteIfExists(sidecarFor(getFile(cur)));
+				expiry.remove(cur);
+			}
+		} catch (IOException e) {
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to delete path", e);
+		}
+	}
+
 	@Override
 	public void submit(File file, String path) throws OssException {
+		submit(file, path, null, null);
+	}
+
+	/**
+	 * Metadata is stored in extended attributes of the file. If filesystem
+	 * doesn't support them, then in the hidden sidecar file next to it
+	 */
+	@Override
+	public void submit(File file, String path, String contentType, Map<String, String> metadata) throws OssException {
 		LOG.info("submitting: {}", path);
 
-		File newPath = new File(basePath + path);
-		if (!newPath.getParentFile().exists() && !newPath.getParentFile().mkdirs()) {
-			throw new OssException("Unable to create dirs: " + newPath.getParentFile().getAbsolutePath());
+		File newPath = getWritable(path);
+		createParent(newPath);
+		// copies might share the same inode. never write into the existing file
+		Path temp = tempFor(newPath);
+		Lock lock = lockFor(path);
+		lock.lock();
+		try {
+			Files.copy(file.toPath(), temp);
+			if (!metadataInSidecar) {
+				// moved together with the data
+				writeXattrs(temp, contentType, metadata);
+			}
+			Files.move(temp, newPath.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			if (metadataInSidecar) {
+				writeSidecar(newPath, contentType, metadata);
+			}
+			addToIndex(path);
+			removeExpiry(path);
+		} catch (IOException e) {
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to copy", e);
+		} finally {
+			lock.unlock();
+			deleteQuietly(temp);
+		}
+	}
+
+	/**
+	 * Expiration is kept in the index. Expired objects are deleted by the
+	 * background sweeper or {@link #sweep()}
+	 */
+	@Override
+	public void submit(File file, String path, String contentType, Map<String, String> metadata, Instant expiresAt) throws OssException {
+		Lock lock = lockFor(path);
+		lock.lock();
+		try {
+			submit(file, path, contentType, metadata);
+			expiry.put(path, expiresAt.toEpochMilli());
+			startSweeper();
+		} catch (IOException e) {
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to update expiry index", e);
+		} finally {
+			lock.unlock();
 		}
-		try (FileOutputStream fos = new FileOutputStream(newPath)) {
-			Files.copy(file.toPath(), fos);
+	}
+
+	/**
+	 * Copy using hard link if filesystem supports it. Objects are never
+	 * modified in place, so copies are independent
+	 */
+	@Override
+	public void copy(String src, String dst) throws OssException {
+		LOG.info("copying: {} to {}", src, dst);
+
+		File source = getExisting(src);
+		File newPath = getWritable(dst);
+		createParent(newPath);
+		Path temp = tempFor(newPath);
+		Lock lock = lockFor(dst);
+		lock.lock();
+		try {
+			try {
+				// extended attributes are shared by the link
+				Files.createLink(temp, source.toPath());
+			} catch (UnsupportedOperationException | FileSystemException e) {
+				Files.copy(source.toPath(), temp);
+				if (!metadataInSidecar) {
+					FileEntry existing = readMetadata(source);
+					writeXattrs(temp, existing.getContentType(), existing.getMetadata());
+				}
+			}
+			Files.move(temp, newPath.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			if (metadataInSidecar) {
+				copySidecar(source, newPath, false);
+			}
+			addToIndex(dst);
+			// copy and move targets don't expire
+			removeExpiry(dst);
+		} catch (NoSuchFileException e) {
+			throw new OssException(OssException.NOT_FOUND, "path not found: " + src, e);
 		} catch (IOException e) {
 			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to copy", e);
+		} finally {
+			lock.unlock();
+			deleteQuietly(temp);
 		}
 	}
 
 	@Override
-	public void download(String path, Callback f) {
-		LOG.info("downloading: {}", path);
+	public void move(String src, String dst) throws OssException {
+		LOG.info("moving: {} to {}", src, dst);
+
+		File source = getExisting(src);
+		if (src.equals(dst)) {
+			return;
+		}
+		File newPath = getWritable(dst);
+		createParent(newPath);
+		// same order in all threads
+		Lock first = pathLocks[Math.min(stripe(src), stripe(dst))];
+		Lock second = pathLocks[Math.max(stripe(src), stripe(dst))];
+		first.lock();
+		second.lock();
+		// index first, so crash after the move doesn't hide the object
+		boolean indexed = sharded && !index.contains(dst);
+		boolean moved = false;
+		try {
+			addToIndex(dst);
+			Files.move(source.toPath(), newPath.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			moved = true;
+			if (metadataInSidecar) {
+				copySidecar(source, newPath, true);
+			}
+			if (sharded) {
+				index.remove(src);
+			}
+			expiry.remove(src);
+			expiry.remove(dst);
+		} catch (NoSuchFileException e) {
+			throw new OssException(OssException.NOT_FOUND, "path not found: " + src, e);
+		} catch (IOException e) {
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to move", e);
+		} finally {
+			if (indexed && !moved) {
+				removeFromIndexQuietly(dst);
+			}
+			second.unlock();
+			first.unlock();
+		}
+	}
+
+	@Override
+	public FileEntry stat(String path) throws OssException {
+		return stat(path, getExisting(path));
+	}
+
+	private FileEntry stat(String path, File file) throws OssException {
+		FileEntry result;
+		try {
+			result = readMetadata(file);
+		} catch (NoSuchFileException e) {
+			throw new OssException(OssException.NOT_FOUND, "path not found: " + path, e);
+		} catch (IOException e) {
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to read metadata", e);
+		}
+		result.setName(path);
+		result.setBytes(file.length());
+		result.setLastModified(new Date(file.lastModified()).toString());
+		return result;
+	}
+
+	private FileEntry readMetadata(File file) throws IOException {
+		return readMetadata(file, metadataInSidecar);
+	}
+
+	// used by migration. source store might use either
+	static FileEntry readAnyMetadata(File file) throws IOException {
+		boolean sidecar = Files.exists(sidecarFor(file)) || Files.getFileAttributeView(file.toPath(), UserDefinedFileAttributeView.class) == null;
+		return readMetadata(file, sidecar);
+	}
+
+	private static FileEntry readMetadata(File file, boolean inSidecar) throws IOException {
+		FileEntry result = new FileEntry();
+		Map<String, String> metadata = new HashMap<>();
+		if (inSidecar) {
+			Path sidecar = sidecarFor(file);
+			if (Files.exists(sidecar)) {
+				Properties props = new Properties();
+				try (Reader r = Files.newBufferedReader(sidecar, StandardCharsets.UTF_8)) {
+					props.load(r);
+				}
+				for (String cur : props.stringPropertyNames()) {
+					if (cur.startsWith(SIDECAR_METADATA_PREFIX)) {
+						metadata.put(cur.substring(SIDECAR_METADATA_PREFIX.length()), props.getProperty(cur));
+					}
+				}
+				result.setContentType(props.getProperty(CONTENT_TYPE));
+			}
+		} else {
+			UserDefinedFileAttributeView view = Files.getFileAttributeView(file.toPath(), UserDefinedFileAttributeView.class);
+			for (String cur : view.list()) {
+				if (cur.equals(XATTR_CONTENT_TYPE)) {
+					result.setContentType(readXattr(view, cur));
+				} else if (cur.startsWith(XATTR_METADATA_PREFIX)) {
+					metadata.put(cur.substring(XATTR_METADATA_PREFIX.length()), readXattr(view, cur));
+				}
+			}
+		}
+		result.setMetadata(metadata);
+		return result;
+	}
+
+	private static String readXattr(UserDefinedFileAttributeView view, String name) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(view.size(name));
+		view.read(name, buffer);
+		buffer.flip();
+		return StandardCharsets.UTF_8.decode(buffer).toString();
+	}
+
+	private static void writeXattrs(Path file, String contentType, Map<String, String> metadata) throws IOException {
+		UserDefinedFileAttributeView view = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+		if (contentType != null) {
+			view.write(XATTR_CONTENT_TYPE, StandardCharsets.UTF_8.encode(contentType));
+		}
+		if (metadata != null) {
+			for (Entry<String, String> cur : metadata.entrySet()) {
+				view.write(XATTR_METADATA_PREFIX + cur.getKey().toLowerCase(Locale.ROOT), StandardCharsets.UTF_8.encode(cur.getValue()));
+			}
+		}
+	}
+
+	private static void writeSidecar(File file, String contentType, Map<String, String> metadata) throws IOException {
+		Path sidecar = sidecarFor(file);
+		if (contentType == null && (metadata == null || metadata.isEmpty())) {
+			// metadata is replaced on submit
+			Files.deleteIfExists(sidecar);
+			return;
+		}
+		Properties props = new Properties();
+		if (contentType != null) {
+			props.setProperty(CONTENT_TYPE, contentType);
+		}
+		if (metadata != null) {
+			for (Entry<String, String> cur : metadata.entrySet()) {
+				props.setProperty(SIDECAR_METADATA_PREFIX + cur.getKey().toLowerCase(Locale.ROOT), cur.getValue());
+			}
+		}
+		Path temp = tempFor(sidecar.toFile());
+		try {
+			try (Writer w = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+				props.store(w, null);
+			}
+			Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			deleteQuietly(temp);
+		}
+	}
+
+	private static void copySidecar(File source, File target, boolean move) throws IOException {
+		Path sourceSidecar = sidecarFor(source);
+		Path targetSidecar = sidecarFor(target);
+		if (!Files.exists(sourceSidecar)) {
+			Files.deleteIfExists(targetSidecar);
+			return;
+		}
+		if (move) {
+			Files.move(sourceSidecar, targetSidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} else {
+			Files.copy(sourceSidecar, targetSidecar, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	static Path sidecarFor(File file) {
+		return new File(file.getParentFile(), "." + file.getName() + METADATA_SUFFIX).toPath();
+	}
+
+	/**
+	 * @return object file of the sidecar or null if file is not a sidecar
+	 */
+	static File sidecarOwner(File file) {
+		String name = file.getName();
+		if (!name.startsWith(".") || !name.endsWith(METADATA_SUFFIX) || name.length() <= 1 + METADATA_SUFFIX.length()) {
+			return null;
+		}
+		return new File(file.getParentFile(), name.substring(1, name.length() - METADATA_SUFFIX.length()));
+	}
+
+	private static boolean isXattrSupported(File dir) {
+		Path probe = new File(dir, ".xattr-probe" + TEMP_SUFFIX).toPath();
+		try {
+			Files.write(probe, new byte[0]);
+			UserDefinedFileAttributeView view = Files.getFileAttributeView(probe, UserDefinedFileAttributeView.class);
+			if (view == null) {
+				return false;
+			}
+			view.write(XATTR_CONTENT_TYPE, StandardCharsets.UTF_8.encode("probe"));
+			return true;
+		} catch (IOException | UnsupportedOperationException e) {
+			return false;
+		} finally {
+			deleteQuietly(probe);
+		}
+	}
+
+	private File getExisting(String path) throws OssException {
+		File result = getFile(path);
+		if (!result.isFile() || expiry.isExpired(path, System.currentTimeMillis())) {
+			throw new OssException(OssException.NOT_FOUND, "path not found: " + path);
+		}
+		return result;
+	}
+
+	// flat listing hides these names. objects with them would overwrite
+	// sidecars or the expiry index
+	private File getWritable(String path) throws OssException {
+		File result = getFile(path);
+		if (isReserved(result)) {
+			throw new OssException("reserved name: " + path);
+		}
+		return result;
+	}
+
+	static boolean isReserved(File file) {
+		String name = file.getName();
+		return name.endsWith(METADATA_SUFFIX) || name.endsWith(TEMP_SUFFIX);
+	}
+
+	private void removeExpiry(String path) throws OssException {
+		try {
+			expiry.remove(path);
+		} catch (IOException e) {
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to update expiry index", e);
+		}
+	}
+
+	/**
+	 * Delete expired objects. Deletes are throttled by the sweep limiter
+	 *
+	 * @return number of deleted objects
+	 */
+	public int sweep() {
+		int result = 0;
+		while (!Thread.currentThread().isInterrupted()) {
+			long now = System.currentTimeMillis();
+			List<String> batch = expiry.pollExpired(now, sweepBatchSize);
+			if (batch.isEmpty()) {
+				break;
+			}
+			for (int i = 0; i < batch.size(); i++) {
+				String cur = batch.get(i);
+				if (sweepLimiter != null) {
+					try {
+						sweepLimiter.acquireRequest(BandwidthLimiter.BULK);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						for (String remaining : batch.subList(i, batch.size())) {
+							expiry.requeue(remaining);
+						}
+						return result;
+					}
+				}
+				if (sweep(cur, now)) {
+					result++;
+				}
+			}
+		}
+		return result;
+	}
+
+	private boolean sweep(String path, long now) {
+		Lock lock = lockFor(path);
+		lock.lock();
+		try {
+			// might be re-submitted without expiration after poll
+			if (!expiry.isExpired(path, now)) {
+				return false;
+			}
+			// delete() removes directories too
+			if (!getFile(path).isFile()) {
+				removeExpiryQuietly(path);
+				return false;
+			}
+			delete(path);
+			return true;
+		} catch (OssException e) {
+			if (e.getCode() == OssException.NOT_FOUND) {
+				removeExpiryQuietly(path);
+			} else {
+				LOG.error("unable to delete expired: {}", path, e);
+				expiry.requeue(path);
+			}
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private Lock lockFor(String path) {
+		return pathLocks[stripe(path)];
+	}
+
+	private int stripe(String path) {
+		return Math.floorMod(path.hashCode(), pathLocks.length);
+	}
+
+	private void startSweeper() {
+		if (sweepIntervalMillis <= 0) {
+			return;
+		}
+		sweeperLock.lock();
+		try {
+			if (sweeper != null || !sweeperAllowed) {
+				return;
+			}
+			sweeper = new Thread(this::sweepLoop, "oss-file-sweeper");
+			sweeper.setDaemon(true);
+			sweeper.start();
+		} finally {
+			sweeperLock.unlock();
+		}
+	}
 
-		File filePath = new File(basePath + path);
-		if (filePath.exists()) {
-			try (FileInputStream fis = new FileInputStream(filePath)) {
-				f.onData(fis);
-			} catch (Exception e) {
-				LOG.error("unable to callback", e);
+	/**
+	 * @return true if background deletion of expired objects is running
+	 */
+	boolean isSweeperRunning() {
+		sweeperLock.lock();
+		try {
+			return sweeper != null;
+		} finally {
+			sweeperLock.unlock();
+		}
+	}
+
+	private void sweepLoop() {
+		while (!Thread.currentThread().isInterrupted()) {
+			try {
+				Thread.sleep(sweepIntervalMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
 			}
+			int deleted = sweep();
+			if (deleted > 0) {
+				LOG.info("expired objects deleted: {}", deleted);
+			}
+		}
+	}
+
+	private void removeExpiryQuietly(String path) {
+		try {
+			expiry.remove(path);
+		} catch (IOException e) {
+			LOG.info("unable to update expiry index: {}", path, e);
 		}
 	}
 
+	private void addToIndex(String path) throws OssException {
+		if (!sharded) {
+			return;
+		}
+		try {
+			index.add(path);
+		} catch (IOException e) {
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to update index", e);
+		}
+	}
+
+	private void removeFromIndexQuietly(String path) {
+		try {
+			index.remove(path);
+		} catch (IOException e) {
+			LOG.info("unable to remove from index: {}", path, e);
+		}
+	}
+
+	private static void createParent(File file) throws OssException {
+		// dirs might be created concurrently
+		if (!file.getParentFile().mkdirs() && !file.getParentFile().isDirectory()) {
+			throw new OssException("Unable to create dirs: " + file.getParentFile().getAbsolutePath());
+		}
+	}
+
+	private static Path tempFor(File file) {
+		return new File(file.getParentFile(), "." + file.getName() + "." + UUID.randomUUID() + TEMP_SUFFIX).toPath();
+	}
+
+	private static void deleteQuietly(Path path) {
+		try {
+			Files.deleteIfExists(path);
+		} catch (IOException e) {
+			LOG.info("unable to delete: {}", path, e);
+		}
+	}
+
+	// used by migration. file is moved instead of copied
+	void moveIn(File file, String path, String contentType, Map<String, String> metadata, Long expiresAt) throws OssException {
+		if (isReserved(new File(path))) {
+			throw new OssException("reserved name: " + path);
+		}
+		File newPath = getWritable(path);
+		createParent(newPath);
+		try {
+			// index and metadata first, so interrupted migration will move
+			// the file again
+			if (sharded) {
+				index.add(path);
+			}
+			if (expiresAt != null) {
+				expiry.put(path, expiresAt);
+				startSweeper();
+			} else {
+				expiry.remove(path);
+			}
+			if (metadataInSidecar) {
+				writeSidecar(newPath, contentType, metadata);
+			} else {
+				writeXattrs(file.toPath(), contentType, metadata);
+			}
+			Files.move(file.toPath(), newPath.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to move", e);
+		}
+	}
+
+	// used by migration
+	Long getExpiresAt(String path) {
+		return expiry.get(path);
+	}
+
+	@Override
+	public void download(String path, Callback f) throws OssException {
+		LOG.info("downloading: {}", path);
+
+		File filePath = getExisting(path);
+		try (FileInputStream fis = new FileInputStream(filePath)) {
+			f.onMetadata(stat(path, filePath));
+			f.onData(fis);
+		} catch (FileNotFoundException e) {
+			// deleted concurrently
+			throw new OssException(OssException.NOT_FOUND, "path not found: " + path, e);
+		} catch (IOException e) {
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to read", e);
+		}
+	}
+
+	@Override
+	public long download(String path, WritableByteChannel channel) throws OssException {
+		LOG.info("downloading: {}", path);
+
+		File filePath = getExisting(path);
+		try (FileChannel source = FileChannel.open(filePath.toPath(), StandardOpenOption.READ)) {
+			return Transfers.transfer(source, channel);
+		} catch (NoSuchFileException e) {
+			throw new OssException(OssException.NOT_FOUND, "path not found: " + path, e);
+		} catch (IOException e) {
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to read", e);
+		}
+	}
+
+	// submit doesn't fsync. used by callers which need the object to
+	// survive crash
+	void sync(String path) throws IOException {
+		File file = getFile(path);
+		force(file.toPath());
+		Path sidecar = sidecarFor(file);
+		if (Files.exists(sidecar)) {
+			force(sidecar);
+		}
+		// rename is durable only after directory fsync
+		try {
+			force(file.getParentFile().toPath());
+		} catch (IOException e) {
+			// directories can't be opened on some platforms
+			LOG.debug("unable to sync directory: {}", file.getParent(), e);
+		}
+	}
+
+	private static void force(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Resolves object path into the local file. File might not exist
+	 * 
+	 * @param path - object path
+	 * @return file where object is or will be stored
+	 */
+	public File getFile(String path) {
+		if (!sharded) {
+			return new File(basePath + path);
+		}
+		String hash = hash(path);
+		StringBuilder result = new StringBuilder(basePath);
+		for (int i = 0; i < shardLevels; i++) {
+			result.append(File.separatorChar).append(hash, i * 2, i * 2 + 2);
+		}
+		result.append(File.separatorChar).append(hash);
+		return new File(result.toString());
+	}
+
+	private static String hash(String path) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		byte[] bytes = digest.digest(path.getBytes(StandardCharsets.UTF_8));
+		StringBuilder result = new StringBuilder(bytes.length * 2);
+		for (byte cur : bytes) {
+			result.append(Character.forDigit((cur >> 4) & 0xF, 16)).append(Character.forDigit(cur & 0xF, 16));
+		}
+		return result.toString();
+	}
+
 	private static File initDir(String dir) {
 		File tempDirFile = new File(dir);
 		if (tempDirFile.exists() && !tempDirFile.isDirectory()) {
@@ -155,4 +947,58 @@ public class FileOssClient implements OssClient {
 	public void setBasePath(String basePath) {
 		this.basePath = basePath;
 	}
+
+	/**
+	 * @param metadataInSidecar - store content type and user metadata in the
+	 *                          hidden sidecar file instead of extended
+	 *                          attributes. Sidecar is used automatically if
+	 *                          filesystem doesn't support extended attributes
+	 */
+	public void setMetadataInSidecar(boolean metadataInSidecar) {
+		this.metadataInSidecar = metadataInSidecar;
+	}
+
+	/**
+	 * @param sweepIntervalMillis - interval of the background deletion of
+	 *                            expired objects. The thread is started on
+	 *                            the first expiring object. 0 to disable
+	 */
+	public void setSweepIntervalMillis(long sweepIntervalMillis) {
+		this.sweepIntervalMillis = sweepIntervalMillis;
+	}
+
+	/**
+	 * @param sweepBatchSize - number of expired objects taken from the index
+	 *                       at once
+	 */
+	public void setSweepBatchSize(int sweepBatchSize) {
+		this.sweepBatchSize = sweepBatchSize;
+	}
+
+	/**
+	 * @param sweepLimiter - limits rate of expired objects deletes. Deletes
+	 *                     use {@link BandwidthLimiter#BULK} traffic class.
+	 *                     null to disable
+	 */
+	public void setSweepLimiter(BandwidthLimiter sweepLimiter) {
+		this.sweepLimiter = sweepLimiter;
+	}
+
+	/**
+	 * @param sharded - store objects under hashed names in the fan-out
+	 *                directory tree. Object names are kept in the index file.
+	 *                Use {@link ShardedLayoutMigration} to convert existing
+	 *                store
+	 */
+	public void setSharded(boolean sharded) {
+		this.sharded = sharded;
+	}
+
+	/**
+	 * @param shardLevels - number of directory levels. Each level has up to
+	 *                    256 directories
+	 */
+	public void setShardLevels(int shardLevels) {
+		this.shardLevels = shardLevels;
+	}
 }
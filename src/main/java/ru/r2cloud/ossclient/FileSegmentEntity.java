@@ -0,0 +1,128 @@
+package ru.r2cloud.ossclient;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+/**
+ * Region of the file. Used to upload large files in segments
+ */
+class FileSegmentEntity extends AbstractHttpEntity {
+
+	private final File file;
+	private final long offset;
+	private final long length;
+	private final BandwidthLimiter limiter;
+	private final String trafficClass;
+
+	FileSegmentEntity(File file, long offset, long length, BandwidthLimiter limiter, String trafficClass) {
+		this.file = file;
+		this.offset = offset;
+		this.length = length;
+		this.limiter = limiter;
+		this.trafficClass = trafficClass;
+		setContentType(ContentType.APPLICATION_OCTET_STREAM.toString());
+	}
+
+	@Override
+	public boolean isRepeatable() {
+		return true;
+	}
+
+	@Override
+	public long getContentLength() {
+		return length;
+	}
+
+	@Override
+	public InputStream getContent() throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		channel.position(offset);
+		InputStream result = new BoundedInputStream(Channels.newInputStream(channel), length);
+		if (limiter != null) {
+			return new ThrottledInputStream(result, limiter, trafficClass);
+		}
+		return result;
+	}
+
+	@Override
+	public void writeTo(OutputStream outStream) throws IOException {
+		if (limiter != null) {
+			try (InputStream is = getContent()) {
+				is.transferTo(outStream);
+			}
+			outStream.flush();
+			return;
+		}
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(OUTPUT_BUFFER_SIZE);
+			long position = offset;
+			long remaining = length;
+			while (remaining > 0) {
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), remaining));
+				int read = channel.read(buffer, position);
+				if (read < 0) {
+					throw new IOException("unexpected end of file: " + file.getAbsolutePath());
+				}
+				outStream.write(buffer.array(), 0, read);
+				position += read;
+				remaining -= read;
+			}
+		}
+		outStream.flush();
+	}
+
+	@Override
+	public boolean isStreaming() {
+		return false;
+	}
+
+	private static class BoundedInputStream extends InputStream {
+
+		private final InputStream in;
+		private long remaining;
+
+		BoundedInputStream(InputStream in, long remaining) {
+			this.in = in;
+			this.remaining = remaining;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int result = in.read();
+			if (result != -1) {
+				remaining--;
+			}
+			return result;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int result = in.read(b, off, (int) Math.min(len, remaining));
+			if (result > 0) {
+				remaining -= result;
+			}
+			return result;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
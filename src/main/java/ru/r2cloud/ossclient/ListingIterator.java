@@ -0,0 +1,65 @@
+package ru.r2cloud.ossclient;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Streams sorted listing page by page. Only one page is kept in memory
+ */
+class ListingIterator {
+
+	private final OssClient client;
+	private final int pageSize;
+
+	private Iterator<FileEntry> page;
+	private FileEntry next;
+	private String marker;
+	private boolean finished;
+
+	ListingIterator(OssClient client, int pageSize) {
+		this.client = client;
+		this.pageSize = pageSize;
+	}
+
+	FileEntry peek() throws OssException {
+		if (next != null) {
+			return next;
+		}
+		while (!finished) {
+			if (page != null && page.hasNext()) {
+				next = page.next();
+				// skip "subdir" entries
+				if (next.getName() == null) {
+					next = null;
+					continue;
+				}
+				marker = next.getName();
+				return next;
+			}
+			ListRequest req = new ListRequest();
+			req.setLimit(pageSize);
+			req.setMarker(marker);
+			List<FileEntry> result = client.listFiles(req);
+			if (result.isEmpty()) {
+				finished = true;
+				break;
+			}
+			page = result.iterator();
+		}
+		return null;
+	}
+
+	FileEntry next() throws OssException {
+		FileEntry result = peek();
+		next = null;
+		return result;
+	}
+
+	static String normalize(String name) {
+		if (name.startsWith("/")) {
+			return name;
+		}
+		return "/" + name;
+	}
+
+}
@@ -0,0 +1,138 @@
+package ru.r2cloud.ossclient;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sorted set of object names persisted as append-only log. Each record is
+ * "+ name" or "- name". The log is compacted on open.
+ */
+class NameIndex implements AutoCloseable {
+
+	private static final char ADD = '+';
+	private static final char REMOVE = '-';
+
+	private final File file;
+	private final NavigableSet<String> names = new ConcurrentSkipListSet<>();
+	private final Lock lock = new ReentrantLock();
+	private FileChannel channel;
+	private Writer writer;
+
+	NameIndex(File file) {
+		this.file = file;
+	}
+
+	void open() throws IOException {
+		if (file.exists()) {
+			try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+				String curLine = null;
+				while ((curLine = r.readLine()) != null) {
+					// last record might be partially written
+					if (curLine.length() < 3 || curLine.charAt(1) != ' ') {
+						continue;
+					}
+					String name = URLDecoder.decode(curLine.substring(2), StandardCharsets.UTF_8);
+					if (curLine.charAt(0) == ADD) {
+						names.add(name);
+					} else if (curLine.charAt(0) == REMOVE) {
+						names.remove(name);
+					}
+				}
+			}
+		}
+		File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+		try (FileOutputStream fos = new FileOutputStream(temp); Writer w = new BufferedWriter(new OutputStreamWriter(fos, StandardCharsets.UTF_8))) {
+			for (String cur : names) {
+				w.append(ADD).append(' ').append(URLEncoder.encode(cur, StandardCharsets.UTF_8)).append('\n');
+			}
+			w.flush();
+			// compacted log replaces the only copy of the names
+			fos.getFD().sync();
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		writer = Channels.newWriter(channel, StandardCharsets.UTF_8);
+	}
+
+	void add(String name) throws IOException {
+		lock.lock();
+		try {
+			if (names.add(name)) {
+				append(ADD, name);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void remove(String name) throws IOException {
+		lock.lock();
+		try {
+			if (names.remove(name)) {
+				append(REMOVE, name);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	boolean contains(String name) {
+		return names.contains(name);
+	}
+
+	/**
+	 * @param from      - first name
+	 * @param inclusive - include "from" into result
+	 * @return live view of names in ascending order
+	 */
+	NavigableSet<String> tailSet(String from, boolean inclusive) {
+		if (from == null) {
+			return names;
+		}
+		return names.tailSet(from, inclusive);
+	}
+
+	int size() {
+		return names.size();
+	}
+
+	// guarded by lock. object is listed only after the record is durable
+	private void append(char type, String name) throws IOException {
+		writer.append(type).append(' ').append(URLEncoder.encode(name, StandardCharsets.UTF_8)).append('\n');
+		writer.flush();
+		channel.force(false);
+	}
+
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			if (writer != null) {
+				writer.close();
+				writer = null;
+				channel = null;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -1,15 +1,228 @@
 package ru.r2cloud.ossclient;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 
 public interface OssClient {
 
 	void submit(File file, String path) throws OssException;
 
+	/**
+	 * Submit object with content type and user metadata. Metadata is replaced
+	 * on each submit. Backends without metadata support ignore it, for
+	 * example {@link PackedOssClient} stores only the data.
+	 *
+	 * @param file        - data
+	 * @param path        - object path
+	 * @param contentType - content type. Might be null
+	 * @param metadata    - user metadata. Keys are case-insensitive, values
+	 *                    must be ASCII. Might be null
+	 * @throws OssException - on failure
+	 */
+	default void submit(File file, String path, String contentType, Map<String, String> metadata) throws OssException {
+		submit(file, path);
+	}
+
+	/**
+	 * Submit object which is deleted automatically after the time to live.
+	 * Expired object is not readable even if it is not deleted yet. Next
+	 * submit without expiration makes object permanent
+	 *
+	 * @param file - data
+	 * @param path - object path
+	 * @param ttl  - time to live
+	 * @throws OssException - on failure
+	 */
+	default void submit(File file, String path, Duration ttl) throws OssException {
+		submit(file, path, Instant.now().plus(ttl));
+	}
+
+	/**
+	 * Submit object which is deleted automatically at the given time.
+	 *
+	 * @param file      - data
+	 * @param path      - object path
+	 * @param expiresAt - expiration time
+	 * @throws OssException - on failure
+	 * @see #submit(File, String, Duration)
+	 */
+	default void submit(File file, String path, Instant expiresAt) throws OssException {
+		submit(file, path, null, null, expiresAt);
+	}
+
+	/**
+	 * Submit object with content type, user metadata and expiration.
+	 * Supported by {@link FileOssClient}, {@link SelectelOssClient} and by
+	 * {@link RoutingOssClient} and {@link WriteBehindOssClient} if their
+	 * delegates support it. Default implementation throws
+	 * {@link UnsupportedOperationException}
+	 *
+	 * @param file        - data
+	 * @param path        - object path
+	 * @param contentType - content type. Might be null
+	 * @param metadata    - user metadata. Might be null
+	 * @param expiresAt   - expiration time
+	 * @throws OssException - on failure
+	 * @see #submit(File, String, Duration)
+	 */
+	default void submit(File file, String path, String contentType, Map<String, String> metadata, Instant expiresAt) throws OssException {
+		throw new UnsupportedOperationException("expiration is not supported");
+	}
+
+	/**
+	 * Object attributes, content type and user metadata without downloading
+	 * the object. All clients of this library implement it. Default
+	 * implementation looks up the object in the listing, so content type and
+	 * metadata are available only if the listing returns them
+	 *
+	 * @param path - object path
+	 * @return object attributes
+	 * @throws OssException - with {@link OssException#NOT_FOUND} code if object
+	 *                      doesn't exist
+	 */
+	default FileEntry stat(String path) throws OssException {
+		ListRequest req = new ListRequest();
+		req.setPrefix(path);
+		// exact name goes first in the sorted listing
+		req.setLimit(1);
+		for (FileEntry cur : listFiles(req)) {
+			if (cur.getName() != null && ListingIterator.normalize(cur.getName()).equals(ListingIterator.normalize(path))) {
+				return cur;
+			}
+		}
+		throw new OssException(OssException.NOT_FOUND, "not found: " + path);
+	}
+
 	void delete(String path) throws OssException;
 
 	void download(String path, Callback f) throws OssException;
 
 	List<FileEntry> listFiles(ListRequest req) throws OssException;
+
+	/**
+	 * Download object into the channel. Channel is not closed.
+	 *
+	 * @param path    - object path
+	 * @param channel - destination
+	 * @return number of bytes written
+	 * @throws OssException - with {@link OssException#NOT_FOUND} code if object
+	 *                      doesn't exist
+	 */
+	default long download(String path, WritableByteChannel channel) throws OssException {
+		long[] result = new long[1];
+		try {
+			download(path, is -> {
+				try {
+					result[0] = Transfers.copy(is, channel);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to write: " + path, e.getCause());
+		}
+		return result[0];
+	}
+
+	/**
+	 * Download object into the file. Existing file is replaced only after
+	 * successful download.
+	 *
+	 * @param path   - object path
+	 * @param target - destination file
+	 * @return number of bytes written
+	 * @throws OssException - with {@link OssException#NOT_FOUND} code if object
+	 *                      doesn't exist
+	 */
+	default long download(String path, Path target) throws OssException {
+		return Transfers.download(this, path, target);
+	}
+
+	/**
+	 * Copy object. Default implementation downloads and submits it again.
+	 * Backends override it with server-side copy.
+	 *
+	 * @param src - source object path
+	 * @param dst - destination object path. Replaced if exists
+	 * @throws OssException - with {@link OssException#NOT_FOUND} code if
+	 *                      source doesn't exist
+	 */
+	default void copy(String src, String dst) throws OssException {
+		File temp;
+		try {
+			temp = File.createTempFile("oss-copy", ".tmp");
+		} catch (IOException e) {
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to create temp file", e);
+		}
+		try {
+			download(src, temp.toPath());
+			submit(temp, dst);
+		} finally {
+			if (temp.exists() && !temp.delete()) {
+				temp.deleteOnExit();
+			}
+		}
+	}
+
+	/**
+	 * Rename object. Moving object onto itself does nothing.
+	 *
+	 * @param src - source object path
+	 * @param dst - destination object path. Replaced if exists
+	 * @throws OssException - with {@link OssException#NOT_FOUND} code if
+	 *                      source doesn't exist
+	 */
+	default void move(String src, String dst) throws OssException {
+		// delete would remove the only copy
+		if (src.equals(dst)) {
+			return;
+		}
+		copy(src, dst);
+		delete(src);
+	}
+
+	/**
+	 * Copy many objects. Backends might run copies concurrently.
+	 *
+	 * @param srcToDst - source path to destination path
+	 * @return failed copies by source path. Empty if all succeeded
+	 */
+	default Map<String, OssException> copyAll(Map<String, String> srcToDst) {
+		Map<String, OssException> result = new HashMap<>();
+		for (Entry<String, String> cur : srcToDst.entrySet()) {
+			try {
+				copy(cur.getKey(), cur.getValue());
+			} catch (OssException e) {
+				result.put(cur.getKey(), e);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Move many objects. Backends might run moves concurrently.
+	 *
+	 * @param srcToDst - source path to destination path
+	 * @return failed moves by source path. Empty if all succeeded
+	 */
+	default Map<String, OssException> moveAll(Map<String, String> srcToDst) {
+		Map<String, OssException> result = new HashMap<>();
+		for (Entry<String, String> cur : srcToDst.entrySet()) {
+			try {
+				move(cur.getKey(), cur.getValue());
+			} catch (OssException e) {
+				result.put(cur.getKey(), e);
+			}
+		}
+		return result;
+	}
 }
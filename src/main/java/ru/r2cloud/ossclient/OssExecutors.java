@@ -0,0 +1,82 @@
+package ru.r2cloud.ossclient;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public final class OssExecutors {
+
+	private static final Logger LOG = LoggerFactory.getLogger(OssExecutors.class);
+
+	/**
+	 * Creates executor with thread per task. On JDK 21+ tasks run on virtual
+	 * threads, otherwise on the bounded pool of platform threads. Tasks over
+	 * the limit wait in the queue. The library is built for JDK 11, so virtual
+	 * threads are resolved at runtime
+	 * 
+	 * @param name               - prefix for platform thread names
+	 * @param maxPlatformThreads - max number of platform threads
+	 * @return executor
+	 */
+	public static ExecutorService newVirtualThreadExecutor(String name, int maxPlatformThreads) {
+		ExecutorService result = createVirtualThreadExecutor();
+		if (result != null) {
+			return result;
+		}
+		LOG.info("virtual threads are not supported. fallback to {} platform threads", maxPlatformThreads);
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(maxPlatformThreads, maxPlatformThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new NamedThreadFactory(name));
+		// idle pool doesn't keep threads
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	public static boolean isVirtualThreadsSupported() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	private static ExecutorService createVirtualThreadExecutor() {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (Exception e) {
+			LOG.info("unable to create virtual thread executor: {}", e.getMessage());
+			return null;
+		}
+	}
+
+	private static class NamedThreadFactory implements ThreadFactory {
+
+		private final String name;
+		private final AtomicInteger index = new AtomicInteger();
+
+		NamedThreadFactory(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread result = new Thread(r, name + "-" + index.incrementAndGet());
+			result.setDaemon(true);
+			return result;
+		}
+	}
+
+	private OssExecutors() {
+		// do nothing
+	}
+}
@@ -0,0 +1,27 @@
+package ru.r2cloud.ossclient;
+
+/**
+ * Span started by {@link OssTracer}. Attributes are set before
+ * {@link #end()}. Durations are in microseconds:
+ *
+ * <ul>
+ * <li>oss.phase.auth_us - token refresh</li>
+ * <li>oss.phase.pool_wait_us - waiting for the pooled connection</li>
+ * <li>oss.phase.connect_us - tcp and tls connect. 0 for reused
+ * connection</li>
+ * <li>oss.phase.ttfb_us - from the connection ready and request body sent
+ * to response headers</li>
+ * <li>oss.phase.transfer_us - request body upload and response body
+ * download</li>
+ * </ul>
+ */
+public interface OssSpan {
+
+	void setAttribute(String key, String value);
+
+	void setAttribute(String key, long value);
+
+	void recordException(Throwable e);
+
+	void end();
+}
@@ -0,0 +1,18 @@
+package ru.r2cloud.ossclient;
+
+/**
+ * Receives spans of client operations. Each operation (for example
+ * "oss.submit") has a child span per http attempt ("oss.submit.attempt")
+ * with phase durations in attributes. Maps directly onto OpenTelemetry
+ * SpanBuilder/Span, so the bridge is a few lines and the client doesn't
+ * depend on it. Implementations must be thread-safe
+ */
+public interface OssTracer {
+
+	/**
+	 * @param name   - span name
+	 * @param parent - parent span or null for the operation span
+	 * @return started span
+	 */
+	OssSpan startSpan(String name, OssSpan parent);
+}
@@ -0,0 +1,846 @@
+package ru.r2cloud.ossclient;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores small objects in large append-only segment files. Index of all
+ * objects is kept in memory and persisted into the snapshot on stop and after
+ * each compaction. Records written after the snapshot are replayed on start.
+ * Sealed segments are memory-mapped for reads. Background compaction rewrites
+ * live objects from segments where most of the space is taken by deleted or
+ * overwritten objects. Content type and user metadata are not stored.
+ */
+public class PackedOssClient implements OssClient {
+
+	private static final Logger LOG = LoggerFactory.getLogger(PackedOssClient.class);
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".dat";
+	private static final String SNAPSHOT_FILENAME = "index.snapshot";
+	private static final int SNAPSHOT_MAGIC = 0x50414b31;
+	// crc, name length, seq, last modified, data length
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4;
+	private static final int TOMBSTONE = -1;
+
+	private final NavigableMap<String, Location> index = new ConcurrentSkipListMap<>();
+	private final NavigableMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+	private final Lock lock = new ReentrantLock();
+
+	private String basePath;
+	private long segmentSize = 64 * 1024 * 1024;
+	private double compactThreshold = 0.5;
+	private long compactIntervalMillis = 10_000;
+	private boolean sync;
+
+	private File basePathDir;
+	private Thread compactor;
+	// guarded by lock
+	private Segment active;
+	private long nextSeq;
+
+	public void start() throws OssException {
+		if (segmentSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("segment is too big for memory mapping: " + segmentSize);
+		}
+		basePathDir = new File(basePath);
+		if (!basePathDir.exists() && !basePathDir.mkdirs()) {
+			throw new OssException("unable to create: " + basePathDir.getAbsolutePath());
+		}
+		try {
+			recover();
+		} catch (IOException e) {
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to read segments", e);
+		}
+		LOG.info("objects: {} segments: {}", index.size(), segments.size());
+		if (compactIntervalMillis > 0) {
+			compactor = new Thread(this::compactLoop, "oss-packed-compactor");
+			compactor.setDaemon(true);
+			compactor.start();
+		}
+	}
+
+	public void stop() {
+		if (compactor != null) {
+			compactor.interrupt();
+			try {
+				compactor.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			compactor = null;
+		}
+		lock.lock();
+		try {
+			writeSnapshot();
+			if (active != null) {
+				active.channel.close();
+				active = null;
+			}
+		} catch (IOException e) {
+			LOG.error("unable to write snapshot", e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void submit(File file, String path) throws OssException {
+		byte[] name = path.getBytes(StandardCharsets.UTF_8);
+		if (file.length() + HEADER_SIZE + name.length > segmentSize) {
+			throw new OssException("object is bigger than segment: " + path);
+		}
+		byte[] data;
+		try {
+			data = Files.readAllBytes(file.toPath());
+		} catch (IOException e) {
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to read", e);
+		}
+		lock.lock();
+		try {
+			Location location = append(name, data, nextSeq++, System.currentTimeMillis());
+			release(index.put(path, location));
+		} catch (IOException e) {
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to write", e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void delete(String path) throws OssException {
+		lock.lock();
+		try {
+			Location previous = index.get(path);
+			if (previous == null) {
+				throw new OssException(OssException.NOT_FOUND, "path not found");
+			}
+			append(path.getBytes(StandardCharsets.UTF_8), null, nextSeq++, System.currentTimeMillis());
+			index.remove(path);
+			release(previous);
+		} catch (IOException e) {
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to write", e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void download(String path, Callback f) throws OssException {
+		f.onData(new ByteBufferInputStream(readExisting(path)));
+	}
+
+	// content type and user metadata are not stored
+	@Override
+	public FileEntry stat(String path) throws OssException {
+		Location location = index.get(path);
+		if (location == null) {
+			throw new OssException(OssException.NOT_FOUND, "not found: " + path);
+		}
+		return toEntry(path, location);
+	}
+
+	@Override
+	public long download(String path, WritableByteChannel channel) throws OssException {
+		ByteBuffer data = readExisting(path);
+		try {
+			return Transfers.write(data, channel);
+		} catch (IOException e) {
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to write: " + path, e);
+		}
+	}
+
+	@Override
+	public void copy(String src, String dst) throws OssException {
+		copy(src, dst, false);
+	}
+
+	@Override
+	public void move(String src, String dst) throws OssException {
+		copy(src, dst, true);
+	}
+
+	private void copy(String src, String dst, boolean deleteSource) throws OssException {
+		byte[] name = dst.getBytes(StandardCharsets.UTF_8);
+		lock.lock();
+		try {
+			// source can't be changed or compacted while lock is held
+			ByteBuffer data = readExisting(src);
+			// tombstone would delete the only copy
+			if (deleteSource && src.equals(dst)) {
+				return;
+			}
+			if (data.remaining() + HEADER_SIZE + name.length > segmentSize) {
+				throw new OssException("object is bigger than segment: " + dst);
+			}
+			byte[] copy = new byte[data.remaining()];
+			data.get(copy);
+			release(index.put(dst, append(name, copy, nextSeq++, System.currentTimeMillis())));
+			if (deleteSource) {
+				append(src.getBytes(StandardCharsets.UTF_8), null, nextSeq++, System.currentTimeMillis());
+				release(index.remove(src));
+			}
+		} catch (IOException e) {
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to write", e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private ByteBuffer readExisting(String path) throws OssException {
+		ByteBuffer result;
+		try {
+			result = read(path);
+		} catch (IOException e) {
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to read", e);
+		}
+		if (result == null) {
+			throw new OssException(OssException.NOT_FOUND, "unable to download: " + path);
+		}
+		return result;
+	}
+
+	@Override
+	public List<FileEntry> listFiles(ListRequest req) throws OssException {
+		String prefix = req.getPrefix();
+		String marker = req.getMarker();
+		NavigableMap<String, Location> candidates;
+		if (marker != null && (prefix == null || marker.compareTo(prefix) >= 0)) {
+			candidates = index.tailMap(marker, false);
+		} else if (prefix != null) {
+			candidates = index.tailMap(prefix, true);
+		} else {
+			candidates = index;
+		}
+		List<FileEntry> result = new ArrayList<>();
+		for (Map.Entry<String, Location> cur : candidates.entrySet()) {
+			// names are sorted, so the rest doesn't match either
+			if (prefix != null && !cur.getKey().startsWith(prefix)) {
+				break;
+			}
+			result.add(toEntry(cur.getKey(), cur.getValue()));
+			if (result.size() >= req.getLimit() || result.size() >= 10000) {
+				break;
+			}
+		}
+		return result;
+	}
+
+	private static FileEntry toEntry(String name, Location location) {
+		FileEntry result = new FileEntry();
+		result.setName(name);
+		result.setBytes(location.length);
+		result.setLastModified(new Date(location.lastModified).toString());
+		return result;
+	}
+
+	/**
+	 * Rewrite live objects from segments where live data takes less than
+	 * compactThreshold and delete these segments
+	 *
+	 * @return number of compacted segments
+	 * @throws OssException - on i/o failure
+	 */
+	public int compact() throws OssException {
+		int result = 0;
+		try {
+			for (Segment cur : new ArrayList<>(segments.values())) {
+				if (cur.mapped == null || cur.liveBytes.get() >= cur.size * compactThreshold) {
+					continue;
+				}
+				// tombstones are not garbage while they hide older records.
+				// otherwise tombstone-only segment is rewritten on every run
+				if (cur.liveBytes.get() + getTombstoneBytes(cur) >= cur.size * compactThreshold) {
+					continue;
+				}
+				compact(cur);
+				result++;
+			}
+		} catch (IOException e) {
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to compact", e);
+		}
+		return result;
+	}
+
+	public int getSegments() {
+		return segments.size();
+	}
+
+	private void compact(Segment segment) throws IOException {
+		LOG.info("compacting {}. live bytes: {}/{}", segment.file.getName(), segment.liveBytes.get(), segment.size);
+		// tombstones hide records from the older segments during full replay
+		Set<String> hiding = findHiding(segment);
+		ByteBuffer buffer = segment.mapped.duplicate();
+		long position = 0;
+		Record record;
+		while ((record = Record.read(buffer, position)) != null) {
+			lock.lock();
+			try {
+				if (record.isTombstone()) {
+					if (hiding.contains(record.name) && !index.containsKey(record.name)) {
+						append(record.name.getBytes(StandardCharsets.UTF_8), null, record.seq, record.lastModified);
+					}
+				} else {
+					Location current = index.get(record.name);
+					if (current != null && current.segment == segment.id && current.offset == position) {
+						byte[] data = new byte[record.length];
+						buffer.duplicate().position((int) record.dataOffset).get(data);
+						index.put(record.name, append(record.name.getBytes(StandardCharsets.UTF_8), data, record.seq, record.lastModified));
+					}
+				}
+			} finally {
+				lock.unlock();
+			}
+			position = record.next;
+		}
+		lock.lock();
+		try {
+			// snapshot doesn't reference compacted segment anymore
+			writeSnapshot();
+			segments.remove(segment.id);
+		} finally {
+			lock.unlock();
+		}
+		Files.deleteIfExists(segment.file.toPath());
+	}
+
+	// names of tombstones which still have records in the older segments
+	private Set<String> findHiding(Segment segment) {
+		Set<String> tombstones = new HashSet<>();
+		for (Record cur : Record.readAll(segment.mapped, true)) {
+			if (cur.isTombstone()) {
+				tombstones.add(cur.name);
+			}
+		}
+		Set<String> result = new HashSet<>();
+		if (tombstones.isEmpty()) {
+			return result;
+		}
+		for (Segment older : segments.headMap(segment.id, false).values()) {
+			if (older.mapped == null) {
+				continue;
+			}
+			// sealed segments were verified on write or replay
+			for (Record cur : Record.readAll(older.mapped, false)) {
+				if (!cur.isTombstone() && tombstones.contains(cur.name)) {
+					result.add(cur.name);
+				}
+			}
+		}
+		return result;
+	}
+
+	private static long getTombstoneBytes(Segment segment) {
+		// sealed segments don't change
+		if (segment.tombstoneBytes < 0) {
+			long result = 0;
+			for (Record cur : Record.readAll(segment.mapped, false)) {
+				if (cur.isTombstone()) {
+					result += cur.next - cur.offset;
+				}
+			}
+			segment.tombstoneBytes = result;
+		}
+		return segment.tombstoneBytes;
+	}
+
+	private void compactLoop() {
+		while (!Thread.currentThread().isInterrupted()) {
+			try {
+				Thread.sleep(compactIntervalMillis);
+				compact();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (OssException e) {
+				LOG.error("unable to compact", e);
+			}
+		}
+	}
+
+	private ByteBuffer read(String path) throws IOException {
+		// segment might be sealed or compacted concurrently
+		while (true) {
+			Location location = index.get(path);
+			if (location == null) {
+				return null;
+			}
+			Segment segment = segments.get(location.segment);
+			if (segment == null) {
+				continue;
+			}
+			FileChannel channel = segment.channel;
+			ByteBuffer mapped = segment.mapped;
+			if (mapped != null) {
+				ByteBuffer result = mapped.duplicate();
+				result.position((int) location.dataOffset).limit((int) location.dataOffset + location.length);
+				return result.slice();
+			}
+			if (channel == null) {
+				continue;
+			}
+			ByteBuffer result = ByteBuffer.allocate(location.length);
+			try {
+				while (result.hasRemaining()) {
+					if (channel.read(result, location.dataOffset + result.position()) < 0) {
+						throw new IOException("unexpected end of segment: " + segment.file.getAbsolutePath());
+					}
+				}
+			} catch (ClosedChannelException e) {
+				// sealed concurrently or closed by interrupt of any reader or
+				// writer
+				reopen(segment, channel);
+				if (Thread.currentThread().isInterrupted()) {
+					throw e;
+				}
+				continue;
+			}
+			result.flip();
+			return result;
+		}
+	}
+
+	// FileChannel is closed when thread blocked in i/o is interrupted
+	private void reopen(Segment segment, FileChannel closed) throws IOException {
+		lock.lock();
+		try {
+			// sealed or already reopened
+			if (segment != active || segment.channel != closed || closed.isOpen()) {
+				return;
+			}
+			LOG.info("reopening segment closed by interrupt: {}", segment.file.getName());
+			segment.channel = FileChannel.open(segment.file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// guarded by lock
+	private Location append(byte[] name, byte[] data, long seq, long lastModified) throws IOException {
+		int length = data == null ? 0 : data.length;
+		long recordSize = HEADER_SIZE + name.length + length;
+		if (active == null || (active.size + recordSize > segmentSize && active.size > 0)) {
+			roll();
+		}
+		if (!active.channel.isOpen()) {
+			reopen(active, active.channel);
+		}
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(0);
+		header.putInt(name.length);
+		header.putLong(seq);
+		header.putLong(lastModified);
+		header.putInt(data == null ? TOMBSTONE : data.length);
+		CRC32 crc = new CRC32();
+		crc.update(header.array(), 4, HEADER_SIZE - 4);
+		crc.update(name);
+		if (data != null) {
+			crc.update(data);
+		}
+		header.putInt(0, (int) crc.getValue());
+		header.flip();
+		ByteBuffer[] buffers = new ByteBuffer[] { header, ByteBuffer.wrap(name), ByteBuffer.wrap(data == null ? new byte[0] : data) };
+		long offset = active.size;
+		// overwrite partially written record of the failed append
+		active.channel.position(offset);
+		long written = 0;
+		while (written < recordSize) {
+			written += active.channel.write(buffers);
+		}
+		if (sync) {
+			active.channel.force(false);
+		}
+		active.size += recordSize;
+		if (data != null) {
+			active.liveBytes.addAndGet(recordSize);
+		}
+		return new Location(active.id, offset, offset + HEADER_SIZE + name.length, length, lastModified, seq);
+	}
+
+	// guarded by lock
+	private void release(Location previous) {
+		if (previous == null) {
+			return;
+		}
+		Segment segment = segments.get(previous.segment);
+		if (segment != null) {
+			segment.liveBytes.addAndGet(-previous.getRecordSize());
+		}
+	}
+
+	// guarded by lock
+	private void roll() throws IOException {
+		int id = 0;
+		if (active != null) {
+			active.seal();
+			id = active.id + 1;
+		} else if (!segments.isEmpty()) {
+			id = segments.lastKey() + 1;
+		}
+		active = new Segment(id, new File(basePathDir, String.format("%s%08d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX)));
+		active.channel = FileChannel.open(active.file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		segments.put(id, active);
+	}
+
+	private void recover() throws IOException {
+		File[] files = basePathDir.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+		if (files != null) {
+			for (File cur : files) {
+				int id = Integer.parseInt(cur.getName().substring(SEGMENT_PREFIX.length(), cur.getName().length() - SEGMENT_SUFFIX.length()));
+				Segment segment = new Segment(id, cur);
+				segment.size = cur.length();
+				segments.put(id, segment);
+			}
+		}
+		Map<String, Location> state = new HashMap<>();
+		int fromSegment = 0;
+		long fromPosition = 0;
+		File snapshot = new File(basePathDir, SNAPSHOT_FILENAME);
+		if (snapshot.exists()) {
+			try {
+				long[] watermark = readSnapshot(snapshot, state);
+				fromSegment = (int) watermark[0];
+				fromPosition = watermark[1];
+			} catch (IOException e) {
+				LOG.info("unable to read snapshot. full replay", e);
+				state.clear();
+				fromSegment = 0;
+				fromPosition = 0;
+				nextSeq = 0;
+			}
+		}
+		for (Segment cur : segments.values()) {
+			if (cur.id < fromSegment) {
+				continue;
+			}
+			replay(cur, cur.id == fromSegment ? fromPosition : 0, state);
+		}
+		for (Map.Entry<String, Location> cur : state.entrySet()) {
+			if (cur.getValue().length == TOMBSTONE) {
+				continue;
+			}
+			index.put(cur.getKey(), cur.getValue());
+			segments.get(cur.getValue().segment).liveBytes.addAndGet(cur.getValue().getRecordSize());
+		}
+		for (Segment cur : segments.values()) {
+			if (cur.id == segments.lastKey() && cur.size < segmentSize) {
+				active = cur;
+				active.channel = FileChannel.open(cur.file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+				active.channel.position(cur.size);
+			} else {
+				cur.seal();
+			}
+		}
+	}
+
+	private void replay(Segment segment, long from, Map<String, Location> state) throws IOException {
+		long position = from;
+		try (FileChannel channel = FileChannel.open(segment.file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			if (segment.size > 0) {
+				ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, segment.size);
+				Record record;
+				while ((record = Record.read(buffer, position)) != null) {
+					Location previous = state.get(record.name);
+					// compaction might move older records into the newer segments
+					if (previous == null || previous.seq < record.seq) {
+						state.put(record.name, new Location(segment.id, position, record.dataOffset, record.isTombstone() ? TOMBSTONE : record.length, record.lastModified, record.seq));
+					}
+					nextSeq = Math.max(nextSeq, record.seq + 1);
+					position = record.next;
+				}
+			}
+			if (position < segment.size) {
+				LOG.info("truncating partially written segment {} at {}", segment.file.getName(), position);
+				channel.truncate(position);
+				segment.size = position;
+			}
+		}
+	}
+
+	private long[] readSnapshot(File snapshot, Map<String, Location> state) throws IOException {
+		try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot)))) {
+			if (dis.readInt() != SNAPSHOT_MAGIC) {
+				throw new IOException("invalid snapshot");
+			}
+			nextSeq = dis.readLong();
+			long[] watermark = new long[] { dis.readInt(), dis.readLong() };
+			Segment watermarkSegment = segments.get((int) watermark[0]);
+			if (watermarkSegment != null && watermarkSegment.size < watermark[1]) {
+				throw new IOException("segment is shorter than snapshot: " + watermarkSegment.file.getName());
+			}
+			int count = dis.readInt();
+			for (int i = 0; i < count; i++) {
+				String name = dis.readUTF();
+				int segment = dis.readInt();
+				long offset = dis.readLong();
+				int length = dis.readInt();
+				long lastModified = dis.readLong();
+				long seq = dis.readLong();
+				if (!segments.containsKey(segment)) {
+					throw new IOException("missing segment: " + segment);
+				}
+				state.put(name, new Location(segment, offset, offset + HEADER_SIZE + name.getBytes(StandardCharsets.UTF_8).length, length, lastModified, seq));
+			}
+			if (dis.readInt() != SNAPSHOT_MAGIC) {
+				throw new IOException("truncated snapshot");
+			}
+			return watermark;
+		}
+	}
+
+	// guarded by lock
+	private void writeSnapshot() throws IOException {
+		File snapshot = new File(basePathDir, SNAPSHOT_FILENAME);
+		File temp = new File(basePathDir, SNAPSHOT_FILENAME + ".tmp");
+		try (FileOutputStream fos = new FileOutputStream(temp); DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos))) {
+			dos.writeInt(SNAPSHOT_MAGIC);
+			dos.writeLong(nextSeq);
+			if (active != null) {
+				dos.writeInt(active.id);
+				dos.writeLong(active.size);
+			} else {
+				// all segments are sealed. next record goes into the new one
+				dos.writeInt(segments.isEmpty() ? 0 : segments.lastKey() + 1);
+				dos.writeLong(0);
+			}
+			dos.writeInt(index.size());
+			for (Map.Entry<String, Location> cur : index.entrySet()) {
+				dos.writeUTF(cur.getKey());
+				dos.writeInt(cur.getValue().segment);
+				dos.writeLong(cur.getValue().offset);
+				dos.writeInt(cur.getValue().length);
+				dos.writeLong(cur.getValue().lastModified);
+				dos.writeLong(cur.getValue().seq);
+			}
+			dos.writeInt(SNAPSHOT_MAGIC);
+			dos.flush();
+			// records before the watermark are not replayed
+			if (active != null) {
+				active.channel.force(false);
+			}
+			fos.getFD().sync();
+		}
+		Files.move(temp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	public void setBasePath(String basePath) {
+		this.basePath = basePath;
+	}
+
+	/**
+	 * @param segmentSize - maximum size of the segment file. Objects must fit
+	 *                    into single segment. Up to 2Gb
+	 */
+	public void setSegmentSize(long segmentSize) {
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 * @param compactThreshold - segment is compacted when live data takes less
+	 *                         than this fraction of it
+	 */
+	public void setCompactThreshold(double compactThreshold) {
+		this.compactThreshold = compactThreshold;
+	}
+
+	/**
+	 * @param compactIntervalMillis - background compaction interval. 0 to
+	 *                              disable
+	 */
+	public void setCompactIntervalMillis(long compactIntervalMillis) {
+		this.compactIntervalMillis = compactIntervalMillis;
+	}
+
+	/**
+	 * @param sync - fsync segment after each write
+	 */
+	public void setSync(boolean sync) {
+		this.sync = sync;
+	}
+
+	private static class Segment {
+
+		private final int id;
+		private final File file;
+		private final AtomicLong liveBytes = new AtomicLong();
+		// -1 if not calculated yet
+		private volatile long tombstoneBytes = -1;
+		// writes are guarded by lock
+		private volatile long size;
+		private volatile FileChannel channel;
+		private volatile ByteBuffer mapped;
+
+		Segment(int id, File file) {
+			this.id = id;
+			this.file = file;
+		}
+
+		void seal() throws IOException {
+			if (size > 0) {
+				try (FileChannel readOnly = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+					mapped = readOnly.map(FileChannel.MapMode.READ_ONLY, 0, size);
+				}
+			} else {
+				mapped = ByteBuffer.allocate(0);
+			}
+			// readers switch to mapped buffer
+			if (channel != null) {
+				channel.close();
+				channel = null;
+			}
+		}
+	}
+
+	private static class Location {
+
+		private final int segment;
+		private final long offset;
+		private final long dataOffset;
+		private final int length;
+		private final long lastModified;
+		private final long seq;
+
+		Location(int segment, long offset, long dataOffset, int length, long lastModified, long seq) {
+			this.segment = segment;
+			this.offset = offset;
+			this.dataOffset = dataOffset;
+			this.length = length;
+			this.lastModified = lastModified;
+			this.seq = seq;
+		}
+
+		long getRecordSize() {
+			return dataOffset - offset + length;
+		}
+	}
+
+	private static class Record {
+
+		private String name;
+		private long offset;
+		private long seq;
+		private long lastModified;
+		private int length;
+		private long dataOffset;
+		private long next;
+
+		boolean isTombstone() {
+			return length == TOMBSTONE;
+		}
+
+		static List<Record> readAll(ByteBuffer buffer, boolean verify) {
+			List<Record> result = new ArrayList<>();
+			long position = 0;
+			Record cur;
+			while ((cur = read(buffer, position, verify)) != null) {
+				result.add(cur);
+				position = cur.next;
+			}
+			return result;
+		}
+
+		static Record read(ByteBuffer buffer, long position) {
+			return read(buffer, position, true);
+		}
+
+		// null on the end of segment or partially written record
+		static Record read(ByteBuffer buffer, long position, boolean verify) {
+			if (position + HEADER_SIZE > buffer.limit()) {
+				return null;
+			}
+			ByteBuffer header = buffer.duplicate();
+			header.position((int) position);
+			int crc = header.getInt();
+			int nameLength = header.getInt();
+			long seq = header.getLong();
+			long lastModified = header.getLong();
+			int length = header.getInt();
+			int dataLength = length == TOMBSTONE ? 0 : length;
+			if (nameLength < 0 || length < TOMBSTONE || position + HEADER_SIZE + nameLength + dataLength > buffer.limit()) {
+				return null;
+			}
+			if (verify) {
+				CRC32 actual = new CRC32();
+				ByteBuffer body = buffer.duplicate();
+				body.position((int) position + 4).limit((int) position + HEADER_SIZE + nameLength + dataLength);
+				actual.update(body);
+				if ((int) actual.getValue() != crc) {
+					return null;
+				}
+			}
+			byte[] name = new byte[nameLength];
+			header.get(name);
+			Record result = new Record();
+			result.name = new String(name, StandardCharsets.UTF_8);
+			result.offset = position;
+			result.seq = seq;
+			result.lastModified = lastModified;
+			result.length = length;
+			result.dataOffset = position + HEADER_SIZE + nameLength;
+			result.next = result.dataOffset + dataLength;
+			return result;
+		}
+	}
+
+	private static class ByteBufferInputStream extends InputStream {
+
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			return buffer.get() & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			int result = Math.min(len, buffer.remaining());
+			buffer.get(b, off, result);
+			return result;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return buffer.remaining();
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package ru.r2cloud.ossclient;
+
+/**
+ * Phase durations of a single http attempt. Attached to the calling thread
+ * while request executes, so connection manager and entities can record
+ * into it. All values are in nanoseconds
+ */
+final class RequestTimings {
+
+	private static final ThreadLocal<RequestTimings> CURRENT = new ThreadLocal<>();
+
+	private final String operation;
+	private final String path;
+	private final int attempt;
+	private final OssSpan span;
+	private final long startedAt = System.nanoTime();
+
+	private long authNanos;
+	private long poolWaitNanos;
+	private long connectNanos;
+	private long uploadNanos;
+	private long executeAt;
+	private long headersAt;
+	private long endedAt;
+	private int statusCode;
+	private boolean ended;
+
+	RequestTimings(String operation, String path, int attempt, OssSpan span) {
+		this.operation = operation;
+		this.path = path;
+		this.attempt = attempt;
+		this.span = span;
+	}
+
+	static RequestTimings current() {
+		return CURRENT.get();
+	}
+
+	// token is refreshed before the attempt is attached. auth request is
+	// not counted as the attempt's pool wait or connect
+	void attach() {
+		authNanos = System.nanoTime() - startedAt;
+		CURRENT.set(this);
+	}
+
+	/**
+	 * @return false if already ended
+	 */
+	boolean end() {
+		if (ended) {
+			return false;
+		}
+		ended = true;
+		endedAt = System.nanoTime();
+		CURRENT.remove();
+		return true;
+	}
+
+	void onExecute() {
+		executeAt = System.nanoTime();
+	}
+
+	void onPoolWait(long nanos) {
+		poolWaitNanos += nanos;
+	}
+
+	void onConnect(long nanos) {
+		connectNanos += nanos;
+	}
+
+	void onUpload(long nanos) {
+		uploadNanos += nanos;
+	}
+
+	void onHeaders(int statusCode) {
+		this.statusCode = statusCode;
+		headersAt = System.nanoTime();
+	}
+
+	String getOperation() {
+		return operation;
+	}
+
+	String getPath() {
+		return path;
+	}
+
+	int getAttempt() {
+		return attempt;
+	}
+
+	OssSpan getSpan() {
+		return span;
+	}
+
+	int getStatusCode() {
+		return statusCode;
+	}
+
+	long getTotalNanos() {
+		return endedAt - startedAt;
+	}
+
+	long getAuthNanos() {
+		return authNanos;
+	}
+
+	long getPoolWaitNanos() {
+		return poolWaitNanos;
+	}
+
+	long getConnectNanos() {
+		return connectNanos;
+	}
+
+	long getTtfbNanos() {
+		if (headersAt == 0 || executeAt == 0) {
+			return 0;
+		}
+		return Math.max(0, headersAt - executeAt - poolWaitNanos - connectNanos - uploadNanos);
+	}
+
+	long getTransferNanos() {
+		if (headersAt == 0) {
+			return uploadNanos;
+		}
+		return uploadNanos + (endedAt - headersAt);
+	}
+}
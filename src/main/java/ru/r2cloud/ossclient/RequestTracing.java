@@ -0,0 +1,140 @@
+package ru.r2cloud.ossclient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Emits operation and attempt spans into {@link OssTracer} and logs attempts
+ * slower than the threshold. Does nothing if both are disabled
+ */
+final class RequestTracing {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RequestTracing.class);
+
+	private final OssTracer tracer;
+	private final long slowThresholdNanos;
+
+	/**
+	 * @param tracer              - null to disable spans
+	 * @param slowThresholdMillis - 0 to disable slow request log
+	 */
+	RequestTracing(OssTracer tracer, long slowThresholdMillis) {
+		this.tracer = tracer;
+		this.slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowThresholdMillis);
+	}
+
+	boolean isEnabled() {
+		return tracer != null || slowThresholdNanos > 0;
+	}
+
+	OssSpan startOperation(String operation, String path) {
+		if (tracer == null) {
+			return null;
+		}
+		OssSpan result = tracer.startSpan("oss." + operation, null);
+		result.setAttribute("oss.path", path);
+		return result;
+	}
+
+	void endOperation(OssSpan span, int attempts, Throwable error) {
+		if (span == null) {
+			return;
+		}
+		span.setAttribute("oss.attempts", attempts);
+		if (error != null) {
+			span.recordException(error);
+		}
+		span.end();
+	}
+
+	/**
+	 * Start timings before token refresh. Call {@link #attach(RequestTimings)}
+	 * after it
+	 *
+	 * @return timings or null if disabled
+	 */
+	RequestTimings startAttempt(OssSpan operationSpan, String operation, String path, int attempt) {
+		if (!isEnabled()) {
+			return null;
+		}
+		OssSpan span = null;
+		if (tracer != null) {
+			span = tracer.startSpan("oss." + operation + ".attempt", operationSpan);
+			span.setAttribute("oss.attempt", attempt);
+		}
+		return new RequestTimings(operation, path, attempt, span);
+	}
+
+	void endAttempt(RequestTimings timings, Throwable error) {
+		if (timings == null || !timings.end()) {
+			return;
+		}
+		OssSpan span = timings.getSpan();
+		if (span != null) {
+			if (timings.getStatusCode() > 0) {
+				span.setAttribute("http.response.status_code", timings.getStatusCode());
+			}
+			span.setAttribute("oss.phase.auth_us", toMicros(timings.getAuthNanos()));
+			span.setAttribute("oss.phase.pool_wait_us", toMicros(timings.getPoolWaitNanos()));
+			span.setAttribute("oss.phase.connect_us", toMicros(timings.getConnectNanos()));
+			span.setAttribute("oss.phase.ttfb_us", toMicros(timings.getTtfbNanos()));
+			span.setAttribute("oss.phase.transfer_us", toMicros(timings.getTransferNanos()));
+			if (error != null) {
+				span.recordException(error);
+			}
+			span.end();
+		}
+		if (slowThresholdNanos > 0 && timings.getTotalNanos() >= slowThresholdNanos) {
+			LOG.warn("slow request: {} {} attempt: {} status: {} total: {} ms auth: {} ms pool wait: {} ms connect: {} ms ttfb: {} ms transfer: {} ms", timings.getOperation(), timings.getPath(), timings.getAttempt(), timings.getStatusCode(), toMillis(timings.getTotalNanos()), toMillis(timings.getAuthNanos()), toMillis(timings.getPoolWaitNanos()),
+					toMillis(timings.getConnectNanos()), toMillis(timings.getTtfbNanos()), toMillis(timings.getTransferNanos()));
+		}
+	}
+
+	static void attach(RequestTimings timings) {
+		if (timings != null) {
+			timings.attach();
+		}
+	}
+
+	static HttpEntity wrap(HttpEntity entity) {
+		if (entity == null || RequestTimings.current() == null) {
+			return entity;
+		}
+		return new TimedEntity(entity);
+	}
+
+	private static long toMicros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+
+	private static long toMillis(long nanos) {
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+
+	// request body is written by the calling thread
+	private static class TimedEntity extends HttpEntityWrapper {
+
+		TimedEntity(HttpEntity wrappedEntity) {
+			super(wrappedEntity);
+		}
+
+		@Override
+		public void writeTo(OutputStream outstream) throws IOException {
+			long start = System.nanoTime();
+			try {
+				super.writeTo(outstream);
+			} finally {
+				RequestTimings timings = RequestTimings.current();
+				if (timings != null) {
+					timings.onUpload(System.nanoTime() - start);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,507 @@
+package ru.r2cloud.ossclient;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Routes requests across replicated endpoints (for example
+ * {@link SelectelOssClient} per region). Reads go to the healthy endpoint with
+ * the lowest EWMA latency and optionally hedged to the next one. Writes go to
+ * every endpoint and succeed when write quorum acknowledged them.
+ */
+public class RoutingOssClient implements OssClient {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RoutingOssClient.class);
+
+	private List<OssClient> endpoints;
+	private double ewmaAlpha = 0.2;
+	private boolean hedgedReads;
+	private double hedgePercentile = 0.95;
+	private long hedgeDelayMillis = 100;
+	private int writeQuorum;
+	private int failureThreshold = 3;
+	private long unhealthyPeriodMillis = 30000;
+	private int memoryThreshold = 1024 * 1024;
+	private String tempDirectory;
+	private int maxThreads = 64;
+
+	private final AtomicLong hedgedRequests = new AtomicLong();
+	private List<EndpointStats> stats;
+	private ExecutorService executor;
+
+	public void start() {
+		if (endpoints == null || endpoints.isEmpty()) {
+			throw new IllegalStateException("endpoints are not configured");
+		}
+		stats = new ArrayList<>(endpoints.size());
+		for (int i = 0; i < endpoints.size(); i++) {
+			stats.add(new EndpointStats(ewmaAlpha));
+		}
+		executor = OssExecutors.newVirtualThreadExecutor("oss-routing", maxThreads);
+	}
+
+	public void stop() {
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	@Override
+	public void submit(File file, String path) throws OssException {
+		write(client -> {
+			client.submit(file, path);
+			return null;
+		}, false, path);
+	}
+
+	@Override
+	public void submit(File file, String path, String contentType, Map<String, String> metadata) throws OssException {
+		write(client -> {
+			client.submit(file, path, contentType, metadata);
+			return null;
+		}, false, path);
+	}
+
+	@Override
+	public void submit(File file, String path, Duration ttl) throws OssException {
+		write(client -> {
+			client.submit(file, path, ttl);
+			return null;
+		}, false, path);
+	}
+
+	@Override
+	public void submit(File file, String path, Instant expiresAt) throws OssException {
+		write(client -> {
+			client.submit(file, path, expiresAt);
+			return null;
+		}, false, path);
+	}
+
+	@Override
+	public void submit(File file, String path, String contentType, Map<String, String> metadata, Instant expiresAt) throws OssException {
+		write(client -> {
+			client.submit(file, path, contentType, metadata, expiresAt);
+			return null;
+		}, false, path);
+	}
+
+	@Override
+	public FileEntry stat(String path) throws OssException {
+		if (hedgedReads) {
+			return hedged(client -> client.stat(path), result -> {
+				// do nothing
+			});
+		}
+		OssException last = null;
+		for (Integer index : route()) {
+			try {
+				return call(index, client -> client.stat(path));
+			} catch (OssException e) {
+				LOG.info("unable to stat {} from endpoint {}: {}", path, index, e.getMessage());
+				last = e;
+			}
+		}
+		throw last;
+	}
+
+	@Override
+	public void delete(String path) throws OssException {
+		write(client -> {
+			client.delete(path);
+			return null;
+		}, true, path);
+	}
+
+	@Override
+	public void copy(String src, String dst) throws OssException {
+		write(client -> {
+			client.copy(src, dst);
+			return null;
+		}, false, dst);
+	}
+
+	@Override
+	public void move(String src, String dst) throws OssException {
+		write(client -> {
+			client.move(src, dst);
+			return null;
+		}, false, dst);
+	}
+
+	@Override
+	public void download(String path, Callback f) throws OssException {
+		if (hedgedReads) {
+			SpillBuffer buffer = hedged(client -> {
+				List<SpillBuffer> result = new ArrayList<>(1);
+				FileEntry[] metadata = new FileEntry[1];
+				client.download(path, new Callback() {
+
+					@Override
+					public void onMetadata(FileEntry entry) {
+						metadata[0] = entry;
+					}
+
+					@Override
+					public void onData(InputStream is) {
+						try {
+							result.add(SpillBuffer.read(is, memoryThreshold, tempDirectory));
+						} catch (IOException e) {
+							throw new RoutingException(new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to read: " + path, e));
+						}
+					}
+				});
+				if (result.isEmpty()) {
+					throw new OssException(OssException.NOT_FOUND, "not found: " + path);
+				}
+				SpillBuffer read = result.get(0);
+				read.setMetadata(metadata[0]);
+				return read;
+			}, SpillBuffer::release);
+			try (InputStream is = buffer.openInputStream()) {
+				if (buffer.getMetadata() != null) {
+					f.onMetadata(buffer.getMetadata());
+				}
+				f.onData(is);
+			} catch (IOException e) {
+				throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to read buffer", e);
+			} finally {
+				buffer.release();
+			}
+			return;
+		}
+		OssException last = null;
+		for (Integer index : route()) {
+			boolean[] invoked = new boolean[1];
+			try {
+				call(index, client -> {
+					client.download(path, new Callback() {
+
+						@Override
+						public void onMetadata(FileEntry metadata) {
+							f.onMetadata(metadata);
+						}
+
+						@Override
+						public void onData(InputStream is) {
+							invoked[0] = true;
+							f.onData(is);
+						}
+					});
+					return null;
+				});
+				return;
+			} catch (OssException e) {
+				// callback already consumed part of the data
+				if (invoked[0]) {
+					throw e;
+				}
+				LOG.info("unable to download {} from endpoint {}: {}", path, index, e.getMessage());
+				last = e;
+			}
+		}
+		throw last;
+	}
+
+	@Override
+	public List<FileEntry> listFiles(ListRequest req) throws OssException {
+		if (hedgedReads) {
+			return hedged(client -> client.listFiles(req), result -> {
+				// do nothing
+			});
+		}
+		OssException last = null;
+		for (Integer index : route()) {
+			try {
+				return call(index, client -> client.listFiles(req));
+			} catch (OssException e) {
+				LOG.info("unable to list {} from endpoint {}: {}", req, index, e.getMessage());
+				last = e;
+			}
+		}
+		throw last;
+	}
+
+	private <T> T hedged(Operation<T> operation, Discard<T> discard) throws OssException {
+		List<Integer> route = route();
+		ExecutorCompletionService<T> completion = new ExecutorCompletionService<>(executor);
+		int next = 0;
+		int running = 0;
+		boolean hedgeSent = false;
+		OssException last = null;
+		T result = null;
+		boolean found = false;
+		Integer primary = route.get(next++);
+		completion.submit(() -> call(primary, operation));
+		running++;
+		long delay = getHedgeDelay(primary);
+		try {
+			while (running > 0) {
+				Future<T> done;
+				if (!hedgeSent && next < route.size()) {
+					done = completion.poll(delay, TimeUnit.MILLISECONDS);
+					if (done == null) {
+						Integer hedge = route.get(next++);
+						completion.submit(() -> call(hedge, operation));
+						running++;
+						hedgeSent = true;
+						hedgedRequests.incrementAndGet();
+						continue;
+					}
+				} else {
+					done = completion.take();
+				}
+				running--;
+				try {
+					result = done.get();
+					found = true;
+					break;
+				} catch (ExecutionException e) {
+					last = convert(e.getCause());
+					if (next < route.size()) {
+						Integer failover = route.get(next++);
+						completion.submit(() -> call(failover, operation));
+						running++;
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			last = new OssException(OssException.INTERNAL_SERVER_ERROR, "interrupted", e);
+		}
+		discardRemaining(completion, running, discard);
+		if (!found) {
+			throw last;
+		}
+		return result;
+	}
+
+	private <T> void discardRemaining(ExecutorCompletionService<T> completion, int running, Discard<T> discard) {
+		if (running <= 0) {
+			return;
+		}
+		executor.execute(() -> {
+			for (int i = 0; i < running; i++) {
+				try {
+					discard.discard(completion.take().get());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				} catch (ExecutionException e) {
+					// ignore. the result is not needed
+				}
+			}
+		});
+	}
+
+	private void write(Operation<Void> operation, boolean notFoundIsSuccess, String path) throws OssException {
+		List<Future<Void>> futures = new ArrayList<>(endpoints.size());
+		for (int i = 0; i < endpoints.size(); i++) {
+			int index = i;
+			futures.add(executor.submit(() -> call(index, operation)));
+		}
+		int success = 0;
+		int notFound = 0;
+		OssException last = null;
+		// wait for every replica. submitted file might be removed right after
+		// the method returns
+		for (Future<Void> cur : futures) {
+			try {
+				cur.get();
+				success++;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new OssException(OssException.INTERNAL_SERVER_ERROR, "interrupted", e);
+			} catch (ExecutionException e) {
+				last = convert(e.getCause());
+				if (notFoundIsSuccess && last.getCode() == OssException.NOT_FOUND) {
+					notFound++;
+				} else {
+					LOG.info("unable to write {}: {}", path, last.getMessage());
+				}
+			}
+		}
+		int quorum = getQuorum();
+		if (success + notFound < quorum) {
+			throw new OssException(last != null ? last.getCode() : OssException.INTERNAL_SERVER_ERROR, "write quorum is not reached for " + path + ": " + success + "/" + quorum, last);
+		}
+		if (success == 0) {
+			throw new OssException(OssException.NOT_FOUND, "not found: " + path);
+		}
+	}
+
+	private <T> T call(int index, Operation<T> operation) throws OssException {
+		EndpointStats endpointStats = stats.get(index);
+		long start = System.nanoTime();
+		try {
+			T result = operation.apply(endpoints.get(index));
+			endpointStats.onSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			return result;
+		} catch (OssException e) {
+			// not found is valid response
+			if (e.getCode() != OssException.NOT_FOUND) {
+				endpointStats.onFailure(failureThreshold, unhealthyPeriodMillis);
+			}
+			throw e;
+		} catch (RoutingException e) {
+			endpointStats.onFailure(failureThreshold, unhealthyPeriodMillis);
+			throw e.getCause();
+		} catch (RuntimeException e) {
+			endpointStats.onFailure(failureThreshold, unhealthyPeriodMillis);
+			throw e;
+		}
+	}
+
+	List<Integer> route() {
+		List<Integer> healthy = new ArrayList<>(endpoints.size());
+		List<Integer> unhealthy = new ArrayList<>();
+		for (int i = 0; i < endpoints.size(); i++) {
+			if (stats.get(i).isHealthy()) {
+				healthy.add(i);
+			} else {
+				unhealthy.add(i);
+			}
+		}
+		// snapshot, so concurrent updates don't break the sort
+		double[] latency = new double[endpoints.size()];
+		double total = 0.0;
+		int measured = 0;
+		for (int i = 0; i < latency.length; i++) {
+			latency[i] = stats.get(i).getEwma();
+			if (latency[i] >= 0) {
+				total += latency[i];
+				measured++;
+			}
+		}
+		// endpoint without samples would be the fastest otherwise. average
+		// keeps it in rotation until it gets real samples
+		double average = measured > 0 ? total / measured : 0.0;
+		for (int i = 0; i < latency.length; i++) {
+			if (latency[i] < 0) {
+				latency[i] = average;
+			}
+		}
+		Comparator<Integer> byLatency = Comparator.comparingDouble(index -> latency[index]);
+		Collections.sort(healthy, byLatency);
+		Collections.sort(unhealthy, byLatency);
+		// unhealthy endpoints are the last resort
+		healthy.addAll(unhealthy);
+		return healthy;
+	}
+
+	private long getHedgeDelay(int index) {
+		long result = stats.get(index).getPercentile(hedgePercentile);
+		if (result < 0) {
+			return hedgeDelayMillis;
+		}
+		return result;
+	}
+
+	private int getQuorum() {
+		if (writeQuorum > 0) {
+			return Math.min(writeQuorum, endpoints.size());
+		}
+		return endpoints.size() / 2 + 1;
+	}
+
+	private static OssException convert(Throwable e) {
+		if (e instanceof OssException) {
+			return (OssException) e;
+		}
+		return new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to process", e);
+	}
+
+	public long getHedgedRequests() {
+		return hedgedRequests.get();
+	}
+
+	public void setEndpoints(List<OssClient> endpoints) {
+		this.endpoints = endpoints;
+	}
+
+	public void setEwmaAlpha(double ewmaAlpha) {
+		this.ewmaAlpha = ewmaAlpha;
+	}
+
+	public void setHedgedReads(boolean hedgedReads) {
+		this.hedgedReads = hedgedReads;
+	}
+
+	public void setHedgePercentile(double hedgePercentile) {
+		this.hedgePercentile = hedgePercentile;
+	}
+
+	public void setHedgeDelayMillis(long hedgeDelayMillis) {
+		this.hedgeDelayMillis = hedgeDelayMillis;
+	}
+
+	public void setWriteQuorum(int writeQuorum) {
+		this.writeQuorum = writeQuorum;
+	}
+
+	public void setFailureThreshold(int failureThreshold) {
+		this.failureThreshold = failureThreshold;
+	}
+
+	public void setUnhealthyPeriodMillis(long unhealthyPeriodMillis) {
+		this.unhealthyPeriodMillis = unhealthyPeriodMillis;
+	}
+
+	public void setMemoryThreshold(int memoryThreshold) {
+		this.memoryThreshold = memoryThreshold;
+	}
+
+	public void setTempDirectory(String tempDirectory) {
+		this.tempDirectory = tempDirectory;
+	}
+
+	/**
+	 * @param maxThreads - max number of platform threads for requests to
+	 *                   endpoints if virtual threads are not supported
+	 */
+	public void setMaxThreads(int maxThreads) {
+		this.maxThreads = maxThreads;
+	}
+
+	private interface Operation<T> {
+
+		T apply(OssClient client) throws OssException;
+	}
+
+	private interface Discard<T> {
+
+		void discard(T result);
+	}
+
+	// transfer checked exception through the callback
+	private static class RoutingException extends RuntimeException {
+
+		private static final long serialVersionUID = 7474530862513722836L;
+
+		RoutingException(OssException cause) {
+			super(cause);
+		}
+
+		@Override
+		public synchronized OssException getCause() {
+			return (OssException) super.getCause();
+		}
+	}
+}
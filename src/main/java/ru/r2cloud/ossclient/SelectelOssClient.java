@@ -4,22 +4,50 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.URLEncoder;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.FileEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeader;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,6 +61,8 @@ import com.eclipsesource.json.ParseException;
 public class SelectelOssClient implements OssClient {
 
 	private static final Logger LOG = LoggerFactory.getLogger(SelectelOssClient.class);
+	private static final int MAX_LOGGED_BODY = 1024;
+	private static final HttpEntity EMPTY_ENTITY = new ByteArrayEntity(new byte[0]);
 
 	private static String userAgent;
 	private String authUrl;
@@ -43,9 +73,33 @@ public class SelectelOssClient implements OssClient {
 	private int retries;
 	private long retryTimeoutMillis;
 
-	private String authToken;
-	private String baseUrl;
-	private long validUntil;
+	private int maxConnections = 20;
+	private boolean coalesceRequests;
+	private int coalesceMemoryThreshold = 1024 * 1024;
+	private String tempDirectory;
+	private BandwidthLimiter limiter;
+	private long segmentSize;
+	private String checkpointDirectory;
+	private String uploadTrafficClass = BandwidthLimiter.BULK;
+	private String downloadTrafficClass = BandwidthLimiter.INTERACTIVE;
+	private OssTracer tracer;
+	private long slowRequestThresholdMillis;
+	private RequestTracing tracing;
+
+	private final SingleFlight<SpillBuffer> downloads = new SingleFlight<>((buffer, participants) -> buffer.retain(participants - 1), SpillBuffer::release);
+	private final SingleFlight<List<FileEntry>> listings = new SingleFlight<>((result, participants) -> {
+		// do nothing
+	}, result -> {
+		// do nothing
+	});
+
+	// ReentrantLock instead of synchronized: virtual threads blocked
+	// on monitor during http call pin their carrier thread
+	private final Lock authLock = new ReentrantLock();
+	// recreated with each token. expired token is rejected with 401
+	private volatile SwiftRequests requests;
+	private volatile long validUntil;
+	private volatile boolean segmentsContainerCreated;
 
 	private CloseableHttpClient httpclient;
 
@@ -58,21 +112,50 @@ public class SelectelOssClient implements OssClient {
 	}
 
 	public void start() {
-		RequestConfig config = RequestConfig.custom().setConnectTimeout(timeout).setConnectionRequestTimeout(timeout).build();
-		httpclient = HttpClientBuilder.create().setUserAgent(userAgent).setDefaultRequestConfig(config).build();
+		RequestConfig config = RequestConfig.custom().setConnectTimeout(timeout).setConnectionRequestTimeout(timeout).setSocketTimeout(timeout).build();
+		// all requests go to the single host. connection pool is the only
+		// concurrency limit
+		PoolingHttpClientConnectionManager pool = new PoolingHttpClientConnectionManager();
+		pool.setMaxTotal(maxConnections);
+		pool.setDefaultMaxPerRoute(maxConnections);
+		tracing = new RequestTracing(tracer, slowRequestThresholdMillis);
+		httpclient = HttpClientBuilder.create().setUserAgent(userAgent).setDefaultRequestConfig(config).setConnectionManager(new TimingConnectionManager(pool)).build();
+	}
+
+	public void stop() {
+		if (httpclient != null) {
+			try {
+				httpclient.close();
+			} catch (IOException e) {
+				LOG.info("unable to close http client", e);
+			}
+		}
 	}
 
+	/**
+	 * Segments of the large object are deleted too if segmented upload is
+	 * enabled
+	 */
 	@Override
 	public void delete(String path) throws OssException {
 		if (LOG.isTraceEnabled()) {
 			LOG.trace("deleting: {}", path);
 		}
-		executeWithRetry(currentRetry -> {
-			HttpDelete method = new HttpDelete(baseUrl + "/" + containerName + path);
-			method.setHeader("X-Auth-Token", authToken);
-			org.apache.http.HttpResponse response = null;
+		String segments = segmentSize > 0 ? findSegments(path) : null;
+		delete("delete", path, current -> current.getObjectUrl(path));
+		if (segments != null) {
+			deleteSegments(segments);
+		}
+	}
+
+	private void delete(String operation, String path, Function<SwiftRequests, String> url) throws OssException {
+		executeWithRetry(operation, currentRetry -> {
+			SwiftRequests current = requests;
+			HttpDelete method = new HttpDelete(url.apply(current));
+			method.setHeader(current.getAuthHeader());
+			HttpResponse response = null;
 			try {
-				response = httpclient.execute(method);
+				response = execute(method, uploadTrafficClass);
 				logSafely(response);
 				int statusCode = response.getStatusLine().getStatusCode();
 				if (statusCode == 201 || statusCode == 204) {
@@ -97,16 +180,328 @@ public class SelectelOssClient implements OssClient {
 
 	@Override
 	public void submit(File file, String path) throws OssException {
+		submit(file, path, null, null);
+	}
+
+	@Override
+	public void submit(File file, String path, String contentType, Map<String, String> metadata) throws OssException {
+		submitWithHeaders(file, path, SwiftRequests.createHeaders(contentType, metadata), SwiftRequests.NO_HEADERS);
+	}
+
+	/**
+	 * Uses X-Delete-After, so expiration doesn't depend on the local clock.
+	 * Segments of the large object expire too
+	 */
+	@Override
+	public void submit(File file, String path, Duration ttl) throws OssException {
+		long seconds = Math.max(1, (ttl.toMillis() + 999) / 1000);
+		Header[] expiry = new Header[] { new BasicHeader("X-Delete-After", String.valueOf(seconds)) };
+		submitWithHeaders(file, path, expiry, expiry);
+	}
+
+	/**
+	 * Uses X-Delete-At. Segments of the large object expire too
+	 */
+	@Override
+	public void submit(File file, String path, String contentType, Map<String, String> metadata, Instant expiresAt) throws OssException {
+		long seconds = expiresAt.getEpochSecond() + (expiresAt.getNano() > 0 ? 1 : 0);
+		Header expiry = new BasicHeader("X-Delete-At", String.valueOf(seconds));
+		submitWithHeaders(file, path, SwiftRequests.append(SwiftRequests.createHeaders(contentType, metadata), expiry), new Header[] { expiry });
+	}
+
+	private void submitWithHeaders(File file, String path, Header[] headers, Header[] segmentHeaders) throws OssException {
 		if (LOG.isTraceEnabled()) {
 			LOG.trace("submitting: {}", path);
 		}
-		executeWithRetry(currentRetry -> {
-			HttpPut method = new HttpPut(baseUrl + "/" + containerName + path);
-			method.setHeader("X-Auth-Token", authToken);
-			method.setEntity(new FileEntity(file));
-			org.apache.http.HttpResponse response = null;
+		if (segmentSize <= 0) {
+			put(path, () -> createEntity(file), headers);
+			return;
+		}
+		// overwritten large object leaves its segments behind
+		String previous = findSegments(path);
+		String current = null;
+		if (file.length() > segmentSize) {
+			current = submitSegmented(file, path, headers, segmentHeaders);
+		} else {
+			put(path, () -> createEntity(file), headers);
+		}
+		if (previous != null && !previous.equals(current)) {
+			deleteSegments(previous);
+		}
+	}
+
+	@Override
+	public FileEntry stat(String path) throws OssException {
+		List<FileEntry> result = new ArrayList<>(1);
+		head(path, response -> result.add(convert(path, response)));
+		if (result.isEmpty()) {
+			throw new OssException("unable to stat: " + path);
+		}
+		return result.get(0);
+	}
+
+	// prefix of segments if object is the large object. null otherwise
+	private String findSegments(String path) throws OssException {
+		List<String> result = new ArrayList<>(1);
+		try {
+			head(path, response -> {
+				Header manifest = response.getFirstHeader("X-Object-Manifest");
+				if (manifest != null) {
+					result.add(manifest.getValue());
+				}
+			});
+		} catch (OssException e) {
+			if (e.getCode() == OssException.NOT_FOUND) {
+				return null;
+			}
+			throw e;
+		}
+		if (result.isEmpty()) {
+			return null;
+		}
+		return requests.getSegmentsPrefix(result.get(0));
+	}
+
+	private void head(String path, Consumer<HttpResponse> handler) throws OssException {
+		executeWithRetry("stat", currentRetry -> {
+			SwiftRequests current = requests;
+			HttpHead method = new HttpHead(current.getObjectUrl(path));
+			method.setHeader(current.getAuthHeader());
+			HttpResponse response = null;
+			try {
+				response = execute(method, downloadTrafficClass);
+				int statusCode = response.getStatusLine().getStatusCode();
+				if (statusCode == 401) {
+					resetAuthToken();
+					return false;
+				}
+				if (statusCode != 200 && statusCode != 204) {
+					throw new OssException(statusCode, "unable to stat: " + path);
+				}
+				handler.accept(response);
+				return true;
+			} finally {
+				if (response != null) {
+					EntityUtils.consumeQuietly(response.getEntity());
+				}
+			}
+		}, path);
+	}
+
+	private static FileEntry convert(String path, HttpResponse response) {
+		FileEntry result = new FileEntry();
+		result.setName(path);
+		Header length = response.getFirstHeader("Content-Length");
+		if (length != null) {
+			result.setBytes(Long.parseLong(length.getValue()));
+		}
+		result.setContentType(getHeader(response, "Content-Type"));
+		result.setHash(getHeader(response, "ETag"));
+		result.setLastModified(getHeader(response, "Last-Modified"));
+		Map<String, String> metadata = new HashMap<>();
+		for (Header cur : response.getAllHeaders()) {
+			if (cur.getName().regionMatches(true, 0, SwiftRequests.METADATA_HEADER_PREFIX, 0, SwiftRequests.METADATA_HEADER_PREFIX.length())) {
+				metadata.put(cur.getName().substring(SwiftRequests.METADATA_HEADER_PREFIX.length()).toLowerCase(Locale.ROOT), cur.getValue());
+			}
+		}
+		result.setMetadata(metadata);
+		return result;
+	}
+
+	private static String getHeader(HttpResponse response, String name) {
+		Header result = response.getFirstHeader(name);
+		if (result == null) {
+			return null;
+		}
+		return result.getValue();
+	}
+
+	// returns prefix of uploaded segments
+	private String submitSegmented(File file, String path, Header[] headers, Header[] segmentHeaders) throws OssException {
+		long length = file.length();
+		int segments = (int) ((length + segmentSize - 1) / segmentSize);
+		// segments of different versions of the file shouldn't mix
+		String version = length + "-" + file.lastModified();
+		String segmentPrefix = path + "/" + version + "/";
+		createSegmentsContainer();
+		try (UploadCheckpoint checkpoint = new UploadCheckpoint(getCheckpointFile(file, path))) {
+			checkpoint.open(segmentSize + " " + version + " " + path);
+			if (checkpoint.getCompleted() > 0) {
+				LOG.info("resuming upload of {}. segments uploaded: {}/{}", path, checkpoint.getCompleted(), segments);
+			}
+			for (int i = 0; i < segments; i++) {
+				if (checkpoint.isCompleted(i)) {
+					continue;
+				}
+				long offset = i * segmentSize;
+				long segmentLength = Math.min(segmentSize, length - offset);
+				String segment = segmentPrefix + String.format("%08d", i);
+				put("submit", segment, current -> current.getSegmentUrl(segment), () -> new FileSegmentEntity(file, offset, segmentLength, limiter, uploadTrafficClass), segmentHeaders, null);
+				checkpoint.markCompleted(i);
+			}
+			// zero-length manifest. swift concatenates segments by prefix
+			// metadata of the large object is stored in the manifest
+			put("submit", path, current -> current.getObjectUrl(path), () -> EMPTY_ENTITY, headers, current -> new BasicHeader("X-Object-Manifest", current.getManifest(segmentPrefix)));
+			checkpoint.delete();
+		} catch (IOException e) {
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to write checkpoint", e);
+		}
+		return segmentPrefix;
+	}
+
+	private void createSegmentsContainer() throws OssException {
+		if (segmentsContainerCreated) {
+			return;
+		}
+		executeWithRetry("create", currentRetry -> {
+			SwiftRequests current = requests;
+			HttpPut method = new HttpPut(current.getSegmentsContainerUrl());
+			method.setHeader(current.getAuthHeader());
+			HttpResponse response = null;
 			try {
-				response = httpclient.execute(method);
+				response = execute(method, uploadTrafficClass);
+				logSafely(response);
+				int statusCode = response.getStatusLine().getStatusCode();
+				// 202 if already exists
+				if (statusCode == 201 || statusCode == 202) {
+					return true;
+				}
+				if (statusCode == 401) {
+					resetAuthToken();
+					return false;
+				}
+				throw new OssException(statusCode, "unable to create segments container");
+			} finally {
+				if (response != null) {
+					EntityUtils.consumeQuietly(response.getEntity());
+				}
+			}
+		}, containerName + SwiftRequests.SEGMENTS_CONTAINER_SUFFIX);
+		segmentsContainerCreated = true;
+	}
+
+	private void deleteSegments(String prefix) throws OssException {
+		ListRequest req = new ListRequest();
+		// listing names don't start with "/"
+		req.setPrefix(prefix.substring(1));
+		while (true) {
+			List<FileEntry> page = listFiles(SwiftRequests.createListingQuery(req), current -> current.getSegmentsListingUrl(SwiftRequests.createListingQuery(req)));
+			for (FileEntry cur : page) {
+				String segment = "/" + cur.getName();
+				try {
+					delete("delete", segment, current -> current.getSegmentUrl(segment));
+				} catch (OssException e) {
+					// deleted concurrently
+					if (e.getCode() != OssException.NOT_FOUND) {
+						throw e;
+					}
+				}
+			}
+			if (page.isEmpty()) {
+				break;
+			}
+			req.setMarker(page.get(page.size() - 1).getName());
+		}
+	}
+
+	/**
+	 * Server-side copy using X-Copy-From. Data is not transferred through the
+	 * client
+	 */
+	@Override
+	public void copy(String src, String dst) throws OssException {
+		if (LOG.isTraceEnabled()) {
+			LOG.trace("copying: {} to {}", src, dst);
+		}
+		// overwritten large object leaves its segments behind. the copy
+		// itself is a regular object with the concatenated content
+		String previous = segmentSize > 0 ? findSegments(dst) : null;
+		put("copy", dst, current -> current.getObjectUrl(dst), () -> EMPTY_ENTITY, SwiftRequests.NO_HEADERS, current -> new BasicHeader("X-Copy-From", current.getCopySource(src)));
+		if (previous != null) {
+			deleteSegments(previous);
+		}
+	}
+
+	/**
+	 * Runs copies concurrently. Concurrency is limited by maxConnections
+	 */
+	@Override
+	public Map<String, OssException> copyAll(Map<String, String> srcToDst) {
+		return bulk(srcToDst, this::copy);
+	}
+
+	/**
+	 * Runs moves concurrently. Concurrency is limited by maxConnections
+	 */
+	@Override
+	public Map<String, OssException> moveAll(Map<String, String> srcToDst) {
+		return bulk(srcToDst, this::move);
+	}
+
+	private Map<String, OssException> bulk(Map<String, String> srcToDst, BulkOperation operation) {
+		Map<String, OssException> result = new ConcurrentHashMap<>();
+		Semaphore permits = new Semaphore(maxConnections);
+		ExecutorService executor = OssExecutors.newVirtualThreadExecutor("oss-bulk", maxConnections);
+		try {
+			for (Entry<String, String> cur : srcToDst.entrySet()) {
+				try {
+					permits.acquire();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					result.put(cur.getKey(), new OssException("interrupted"));
+					continue;
+				}
+				executor.execute(() -> {
+					try {
+						operation.apply(cur.getKey(), cur.getValue());
+					} catch (OssException e) {
+						result.put(cur.getKey(), e);
+					} finally {
+						permits.release();
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+			try {
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return new HashMap<>(result);
+	}
+
+	private File getCheckpointFile(File file, String path) {
+		String directory = checkpointDirectory;
+		if (directory == null) {
+			directory = tempDirectory != null ? tempDirectory : System.getProperty("java.io.tmpdir");
+		}
+		String name = UUID.nameUUIDFromBytes((file.getAbsolutePath() + "\n" + path).getBytes(StandardCharsets.UTF_8)).toString();
+		return new File(directory, name + ".upload");
+	}
+
+	private void put(String path, Supplier<HttpEntity> entity, Header[] headers) throws OssException {
+		put("submit", path, current -> current.getObjectUrl(path), entity, headers, null);
+	}
+
+	// url and urlHeader depend on the storage url and might change after
+	// token refresh
+	private void put(String operation, String path, Function<SwiftRequests, String> url, Supplier<HttpEntity> entity, Header[] headers, Function<SwiftRequests, Header> urlHeader) throws OssException {
+		executeWithRetry(operation, currentRetry -> {
+			SwiftRequests current = requests;
+			HttpPut method = new HttpPut(url.apply(current));
+			method.setHeader(current.getAuthHeader());
+			for (Header cur : headers) {
+				method.setHeader(cur);
+			}
+			if (urlHeader != null) {
+				method.setHeader(urlHeader.apply(current));
+			}
+			method.setEntity(entity.get());
+			HttpResponse response = null;
+			try {
+				response = execute(method, uploadTrafficClass);
 				logSafely(response);
 				int statusCode = response.getStatusLine().getStatusCode();
 				if (statusCode == 201) {
@@ -120,6 +515,10 @@ public class SelectelOssClient implements OssClient {
 					resetAuthToken();
 					return false;
 				}
+				// missing container or copy source
+				if (statusCode == 404) {
+					throw new OssException(statusCode, "not found: " + path);
+				}
 				return false;
 			} finally {
 				if (response != null) {
@@ -129,35 +528,71 @@ public class SelectelOssClient implements OssClient {
 		}, path);
 	}
 
-	private void executeWithRetry(RetryFunction toExecute, String path) throws OssException {
+	private void executeWithRetry(String operation, RetryFunction toExecute, String path) throws OssException {
+		OssSpan span = tracing.startOperation(operation, path);
 		int currentRetry = 0;
-		while (!Thread.currentThread().isInterrupted()) {
-			try {
-				refreshToken();
-				if (!toExecute.apply(currentRetry)) {
-					currentRetry++;
-				} else {
-					break;
-				}
-			} catch (IOException e) {
-				resetAuthToken();
-				if (currentRetry < retries) {
-					currentRetry++;
-					LOG.info("unable to process: {} retry...{} exception {}", path, currentRetry, e.getMessage());
+		Throwable error = null;
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				try {
+					RequestTimings timings = tracing.startAttempt(span, operation, path, currentRetry);
+					boolean done;
 					try {
-						Thread.sleep(retryTimeoutMillis);
-					} catch (InterruptedException e1) {
-						LOG.info("sleep interrupted. exit");
-						Thread.currentThread().interrupt();
+						refreshToken();
+						RequestTracing.attach(timings);
+						done = toExecute.apply(currentRetry);
+					} catch (Exception e) {
+						tracing.endAttempt(timings, e);
+						throw e;
+					}
+					tracing.endAttempt(timings, null);
+					if (done) {
+						return;
+					}
+					// always allow at least one retry after expired auth token
+					if (currentRetry >= Math.max(retries, 1)) {
+						throw new OssException("unable to process: " + path);
+					}
+					currentRetry++;
+					// token reset by 401 is refreshed on the next attempt. no need
+					// to wait
+					if (isTokenValid() && !sleepBeforeRetry()) {
 						break;
 					}
-					continue;
+				} catch (IOException e) {
+					resetAuthToken();
+					if (currentRetry < retries) {
+						currentRetry++;
+						LOG.info("unable to process: {} retry...{} exception {}", path, currentRetry, e.getMessage());
+						if (!sleepBeforeRetry()) {
+							break;
+						}
+						continue;
+					}
+					throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to process", e);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
 				}
-				throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to process", e);
-			} catch (InterruptedException e) {
-				Thread.currentThread().interrupt();
-				break;
 			}
+			// callers must not treat unfinished request as success
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "interrupted: " + path);
+		} catch (OssException | RuntimeException e) {
+			error = e;
+			throw e;
+		} finally {
+			tracing.endOperation(span, currentRetry + 1, error);
+		}
+	}
+
+	private boolean sleepBeforeRetry() {
+		try {
+			Thread.sleep(retryTimeoutMillis);
+			return true;
+		} catch (InterruptedException e) {
+			LOG.info("sleep interrupted. exit");
+			Thread.currentThread().interrupt();
+			return false;
 		}
 	}
 
@@ -166,42 +601,60 @@ public class SelectelOssClient implements OssClient {
 		if (LOG.isTraceEnabled()) {
 			LOG.trace("listing: {}", req);
 		}
-		refreshToken();
-		HttpGet method = new HttpGet(baseUrl + "/" + containerName + createRequestUrl(req));
-		method.setHeader("X-Auth-Token", authToken);
-		org.apache.http.HttpResponse response = null;
-		try {
-			response = httpclient.execute(method);
-			int statusCode = response.getStatusLine().getStatusCode();
-			if (statusCode != 200) {
-				LOG.info("invalid response: {}", statusCode);
-				return Collections.emptyList();
-			}
-			return readEntries(response.getEntity().getContent());
-		} catch (Exception e) {
-			LOG.error("unable to list files", e);
-			return Collections.emptyList();
-		} finally {
-			if (response != null) {
-				EntityUtils.consumeQuietly(response.getEntity());
+		String query = SwiftRequests.createListingQuery(req);
+		if (!coalesceRequests) {
+			return listFiles(query, current -> current.getListingUrl(query));
+		}
+		// callers should be able to modify result
+		return new ArrayList<>(listings.execute(query, () -> listFiles(query, current -> current.getListingUrl(query))));
+	}
+
+	private List<FileEntry> listFiles(String query, Function<SwiftRequests, String> url) throws OssException {
+		List<List<FileEntry>> result = new ArrayList<>(1);
+		executeWithRetry("list", currentRetry -> {
+			SwiftRequests current = requests;
+			HttpGet method = new HttpGet(url.apply(current));
+			method.setHeader(current.getAuthHeader());
+			HttpResponse response = null;
+			try {
+				response = execute(method, downloadTrafficClass);
+				int statusCode = response.getStatusLine().getStatusCode();
+				if (statusCode == 204) {
+					result.add(Collections.emptyList());
+					return true;
+				}
+				if (statusCode == 401) {
+					resetAuthToken();
+					return false;
+				}
+				// callers like sync rely on the listing being complete
+				// empty list on error might cause data loss
+				if (statusCode != 200) {
+					throw new OssException(statusCode, "unable to list files: " + query);
+				}
+				result.add(readEntries(getContent(response)));
+				return true;
+			} finally {
+				if (response != null) {
+					EntityUtils.consumeQuietly(response.getEntity());
+				}
 			}
+		}, query);
+		if (result.isEmpty()) {
+			throw new OssException("unable to list files: " + query);
 		}
+		return result.get(0);
 	}
 
-	private static List<FileEntry> readEntries(InputStream is) {
+	private static List<FileEntry> readEntries(InputStream is) throws IOException, OssException {
 		JsonValue parsed;
 		try {
 			parsed = Json.parse(new InputStreamReader(is, StandardCharsets.UTF_8));
 		} catch (ParseException e) {
-			LOG.info("malformed json");
-			return Collections.emptyList();
-		} catch (IOException e) {
-			LOG.info("unable to read data", e);
-			return Collections.emptyList();
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "malformed json", e);
 		}
 		if (!parsed.isArray()) {
-			LOG.info("not an array");
-			return Collections.emptyList();
+			throw new OssException("not an array");
 		}
 		JsonArray array = parsed.asArray();
 		List<FileEntry> result = new ArrayList<>(array.size());
@@ -224,77 +677,272 @@ public class SelectelOssClient implements OssClient {
 		return result;
 	}
 
-	private static String createRequestUrl(ListRequest req) {
-		StringBuilder builder = new StringBuilder();
-		builder.append("/?format=json");
-		if (req.getLimit() > 0) {
-			builder.append("&limit=").append(req.getLimit());
-		}
-		if (req.getMarker() != null) {
-			builder.append("&marker=").append(URLEncoder.encode(req.getMarker(), StandardCharsets.UTF_8));
-		}
-		if (req.getPrefix() != null) {
-			builder.append("&prefix=").append(req.getPrefix());
-		}
-		if (req.getPath() != null) {
-			builder.append("&path=").append(req.getPath());
-		}
-		if (req.getDelimiter() != null) {
-			builder.append("&delimiter=").append(req.getDelimiter());
-		}
-		return builder.toString();
-	}
-
 	@Override
 	public void download(String path, Callback f) throws OssException {
 		if (LOG.isTraceEnabled()) {
 			LOG.trace("downloading: {}", path);
 		}
-		refreshToken();
-		HttpGet method = new HttpGet(baseUrl + "/" + containerName + path);
-		method.setHeader("X-Auth-Token", authToken);
-		org.apache.http.HttpResponse response = null;
+		if (!coalesceRequests) {
+			executeDownload(path, (metadata, is) -> {
+				f.onMetadata(metadata);
+				f.onData(is);
+			});
+			return;
+		}
+		SpillBuffer buffer = downloads.execute(path, () -> {
+			List<SpillBuffer> result = new ArrayList<>(1);
+			executeDownload(path, (metadata, is) -> {
+				SpillBuffer read = SpillBuffer.read(is, coalesceMemoryThreshold, tempDirectory);
+				read.setMetadata(metadata);
+				result.add(read);
+			});
+			return result.get(0);
+		});
+		try (InputStream is = buffer.openInputStream()) {
+			f.onMetadata(buffer.getMetadata());
+			f.onData(is);
+		} catch (IOException e) {
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to read buffer", e);
+		} finally {
+			buffer.release();
+		}
+	}
+
+	private void executeDownload(String path, StreamHandler handler) throws OssException {
+		OssSpan span = tracing.startOperation("download", path);
+		RequestTimings timings = tracing.startAttempt(span, "download", path, 0);
+		Throwable error = null;
+		HttpResponse response = null;
 		try {
-			response = httpclient.execute(method);
+			refreshToken();
+			RequestTracing.attach(timings);
+			SwiftRequests current = requests;
+			HttpGet method = new HttpGet(current.getObjectUrl(path));
+			method.setHeader(current.getAuthHeader());
+			response = execute(method, downloadTrafficClass);
 			int statusCode = response.getStatusLine().getStatusCode();
 			if (statusCode != 200) {
 				throw new OssException(statusCode, "unable to download: " + path);
 			}
-			f.onData(response.getEntity().getContent());
+			handler.handle(convert(path, response), getContent(response));
 		} catch (IOException e) {
+			error = e;
 			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to process", e);
+		} catch (OssException | RuntimeException e) {
+			error = e;
+			throw e;
 		} finally {
 			if (response != null) {
 				EntityUtils.consumeQuietly(response.getEntity());
 			}
+			tracing.endAttempt(timings, error);
+			tracing.endOperation(span, 1, error);
+		}
+	}
+
+	/**
+	 * Downloads object into the file. Data is written into "target.part"
+	 * first. If connection drops, download continues from the last written
+	 * byte using Range requests, even after process restart.
+	 * 
+	 * @param path   - object path
+	 * @param target - destination file
+	 * @return number of bytes in the target file
+	 * @throws OssException - on failure after all retries
+	 */
+	public long downloadResumable(String path, File target) throws OssException {
+		File part = new File(target.getAbsolutePath() + ".part");
+		File etagFile = new File(target.getAbsolutePath() + ".part.etag");
+		OssSpan span = tracing.startOperation("download", path);
+		int currentRetry = 0;
+		Throwable error = null;
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				RequestTimings timings = tracing.startAttempt(span, "download", path, currentRetry);
+				HttpResponse response = null;
+				try {
+					refreshToken();
+					RequestTracing.attach(timings);
+					long offset = part.length();
+					SwiftRequests current = requests;
+					HttpGet method = new HttpGet(current.getObjectUrl(path));
+					method.setHeader(current.getAuthHeader());
+					if (offset > 0) {
+						method.setHeader("Range", "bytes=" + offset + "-");
+						String etag = readEtag(etagFile);
+						// server will return the whole object if it was changed
+						if (etag != null) {
+							method.setHeader("If-Range", etag);
+						}
+					}
+					response = execute(method, downloadTrafficClass);
+					int statusCode = response.getStatusLine().getStatusCode();
+					if (statusCode == 401) {
+						resetAuthToken();
+						if (currentRetry >= Math.max(retries, 1)) {
+							throw new OssException(statusCode, "unable to download: " + path);
+						}
+						currentRetry++;
+						continue;
+					}
+					// the part already has everything
+					if (statusCode == 416 && offset > 0) {
+						break;
+					}
+					if (statusCode != 200 && statusCode != 206) {
+						throw new OssException(statusCode, "unable to download: " + path);
+					}
+					Header etag = response.getFirstHeader("ETag");
+					if (etag != null) {
+						Files.write(etagFile.toPath(), etag.getValue().getBytes(StandardCharsets.UTF_8));
+					}
+					StandardOpenOption mode = statusCode == 206 ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING;
+					try (OutputStream os = Files.newOutputStream(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, mode)) {
+						getContent(response).transferTo(os);
+					}
+					break;
+				} catch (IOException e) {
+					tracing.endAttempt(timings, e);
+					if (currentRetry >= retries) {
+						throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to download: " + path, e);
+					}
+					currentRetry++;
+					LOG.info("unable to download: {} resume from {} retry...{} exception {}", path, part.length(), currentRetry, e.getMessage());
+					try {
+						Thread.sleep(retryTimeoutMillis);
+					} catch (InterruptedException e1) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+				} catch (OssException | RuntimeException e) {
+					tracing.endAttempt(timings, e);
+					throw e;
+				} finally {
+					if (response != null) {
+						EntityUtils.consumeQuietly(response.getEntity());
+					}
+					// no-op if already ended with error
+					tracing.endAttempt(timings, null);
+				}
+			}
+			if (Thread.currentThread().isInterrupted()) {
+				throw new OssException(OssException.INTERNAL_SERVER_ERROR, "interrupted: " + path);
+			}
+		} catch (OssException | RuntimeException e) {
+			error = e;
+			throw e;
+		} finally {
+			tracing.endOperation(span, currentRetry + 1, error);
+		}
+		try {
+			Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			Files.deleteIfExists(etagFile.toPath());
+		} catch (IOException e) {
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to move: " + part.getAbsolutePath(), e);
+		}
+		return target.length();
+	}
+
+	private static String readEtag(File etagFile) {
+		if (!etagFile.exists()) {
+			return null;
+		}
+		try {
+			return new String(Files.readAllBytes(etagFile.toPath()), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return number of download and listing requests served by another
+	 *         in-flight request with the same key
+	 */
+	public long getCoalescedRequests() {
+		return downloads.getCoalesced() + listings.getCoalesced();
+	}
+
+	private HttpResponse execute(HttpUriRequest method, String trafficClass) throws IOException {
+		if (limiter != null) {
+			try {
+				limiter.acquireRequest(trafficClass);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while throttled");
+			}
+		}
+		RequestTimings timings = RequestTimings.current();
+		if (timings == null) {
+			return httpclient.execute(method);
+		}
+		if (method instanceof HttpEntityEnclosingRequest) {
+			HttpEntityEnclosingRequest withBody = (HttpEntityEnclosingRequest) method;
+			withBody.setEntity(RequestTracing.wrap(withBody.getEntity()));
+		}
+		timings.onExecute();
+		HttpResponse result = httpclient.execute(method);
+		timings.onHeaders(result.getStatusLine().getStatusCode());
+		return result;
+	}
+
+	private HttpEntity createEntity(File file) {
+		if (limiter != null) {
+			return new ThrottledFileEntity(file, limiter, uploadTrafficClass);
 		}
+		return new FileEntity(file);
 	}
 
-	private synchronized void refreshToken() throws OssException {
-		if (authToken != null && System.currentTimeMillis() < validUntil) {
+	private InputStream getContent(HttpResponse response) throws IOException {
+		InputStream result = response.getEntity().getContent();
+		if (limiter != null) {
+			return new ThrottledInputStream(result, limiter, downloadTrafficClass);
+		}
+		return result;
+	}
+
+	private void refreshToken() throws OssException {
+		if (isTokenValid()) {
 			return;
 		}
-		if (authToken != null) {
+		authLock.lock();
+		try {
+			// token might be refreshed by another thread
+			if (isTokenValid()) {
+				return;
+			}
+			requestToken();
+		} finally {
+			authLock.unlock();
+		}
+	}
+
+	private boolean isTokenValid() {
+		return requests != null && System.currentTimeMillis() < validUntil;
+	}
+
+	private void requestToken() throws OssException {
+		if (requests != null) {
 			LOG.info("re-newing auth token");
 		}
 		long start = System.currentTimeMillis();
 		HttpGet method = new HttpGet(authUrl);
 		method.setHeader("X-Auth-User", user);
 		method.setHeader("X-Auth-Key", key);
-		org.apache.http.HttpResponse response = null;
+		HttpResponse response = null;
 		try {
 			response = httpclient.execute(method);
 			int statusCode = response.getStatusLine().getStatusCode();
 			if (statusCode != 204) {
 				throw new OssException(statusCode, "unable to authenticate");
 			}
-			authToken = response.getFirstHeader("X-Auth-Token").getValue();
-			baseUrl = response.getFirstHeader("X-Storage-Url").getValue();
-
+			String baseUrl = response.getFirstHeader("X-Storage-Url").getValue();
 			LOG.info("baseurl: {}", baseUrl);
+			requests = new SwiftRequests(baseUrl, containerName, response.getFirstHeader("X-Auth-Token").getValue());
 			// convert seconds to millis
-			validUntil = (start + Long.valueOf(response.getFirstHeader("X-Expire-Auth-Token").getValue()) * 1000) - timeout;
-			LOG.info("the token will expire at: {}", new Date(validUntil));
+			long expiresAt = (start + Long.valueOf(response.getFirstHeader("X-Expire-Auth-Token").getValue()) * 1000) - timeout;
+			LOG.info("the token will expire at: {}", new Date(expiresAt));
+			// assign last. other threads check it without lock
+			validUntil = expiresAt;
 		} catch (IOException e) {
 			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to read auth response", e);
 		} finally {
@@ -304,9 +952,15 @@ public class SelectelOssClient implements OssClient {
 		}
 	}
 
-	private synchronized void resetAuthToken() {
-		LOG.info("not authorized. resetting auth token");
-		authToken = null;
+	private void resetAuthToken() {
+		authLock.lock();
+		try {
+			LOG.info("not authorized. resetting auth token");
+			// keep requests: concurrent calls still need url
+			validUntil = 0;
+		} finally {
+			authLock.unlock();
+		}
 	}
 
 	public void setUser(String user) {
@@ -333,18 +987,99 @@ public class SelectelOssClient implements OssClient {
 		this.retryTimeoutMillis = retryTimeoutMillis;
 	}
 
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+
+	public void setCoalesceRequests(boolean coalesceRequests) {
+		this.coalesceRequests = coalesceRequests;
+	}
+
+	public void setCoalesceMemoryThreshold(int coalesceMemoryThreshold) {
+		this.coalesceMemoryThreshold = coalesceMemoryThreshold;
+	}
+
+	public void setTempDirectory(String tempDirectory) {
+		this.tempDirectory = tempDirectory;
+	}
+
+	/**
+	 * @param limiter - limiter shared between clients. null to disable
+	 *                throttling
+	 */
+	public void setBandwidthLimiter(BandwidthLimiter limiter) {
+		this.limiter = limiter;
+	}
+
+	/**
+	 * @param uploadTrafficClass - traffic class of submit and delete requests
+	 */
+	public void setUploadTrafficClass(String uploadTrafficClass) {
+		this.uploadTrafficClass = uploadTrafficClass;
+	}
+
+	/**
+	 * @param downloadTrafficClass - traffic class of download and listing
+	 *                             requests
+	 */
+	public void setDownloadTrafficClass(String downloadTrafficClass) {
+		this.downloadTrafficClass = downloadTrafficClass;
+	}
+
+	/**
+	 * @param segmentSize - files bigger than this are uploaded in segments
+	 *                    and resumed from the last uploaded segment.
+	 *                    Segments are stored in the "container_segments"
+	 *                    container and deleted together with the object. 0
+	 *                    to disable
+	 */
+	public void setSegmentSize(long segmentSize) {
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 * @param checkpointDirectory - directory for upload checkpoints. By
+	 *                            default checkpoint is stored in the temp
+	 *                            directory
+	 */
+	public void setCheckpointDirectory(String checkpointDirectory) {
+		this.checkpointDirectory = checkpointDirectory;
+	}
+
+	/**
+	 * @param tracer - receives span per operation and per http attempt with
+	 *               auth, pool wait, connect, ttfb and transfer durations.
+	 *               null to disable
+	 */
+	public void setTracer(OssTracer tracer) {
+		this.tracer = tracer;
+	}
+
+	/**
+	 * @param slowRequestThresholdMillis - log phase breakdown of http
+	 *                                   attempts slower than this. 0 to
+	 *                                   disable
+	 */
+	public void setSlowRequestThresholdMillis(long slowRequestThresholdMillis) {
+		this.slowRequestThresholdMillis = slowRequestThresholdMillis;
+	}
+
 	public void setAuthUrl(String authUrl) {
 		this.authUrl = authUrl;
 	}
 
-	private static void logSafely(HttpResponse response) throws org.apache.http.ParseException, IOException {
-		if (LOG.isDebugEnabled()) {
-			if (response.getEntity() != null) {
-				LOG.debug("response: {}", EntityUtils.toString(response.getEntity()));
-			} else {
-				LOG.debug("response is empty");
-			}
+	// reads only the beginning of the body. the rest is consumed by caller
+	private static void logSafely(HttpResponse response) throws IOException {
+		if (!LOG.isDebugEnabled()) {
+			return;
+		}
+		HttpEntity entity = response.getEntity();
+		if (entity == null) {
+			LOG.debug("response: {}. body is empty", response.getStatusLine());
+			return;
 		}
+		byte[] body = entity.getContent().readNBytes(MAX_LOGGED_BODY);
+		LOG.debug("response: {} length: {} body: {}", response.getStatusLine(), entity.getContentLength(), new String(body, StandardCharsets.UTF_8));
 	}
 
 	private static String readVersion() {
@@ -359,4 +1094,14 @@ public class SelectelOssClient implements OssClient {
 			return null;
 		}
 	}
+
+	private interface BulkOperation {
+
+		void apply(String src, String dst) throws OssException;
+	}
+
+	private interface StreamHandler {
+
+		void handle(FileEntry metadata, InputStream is) throws IOException;
+	}
 }
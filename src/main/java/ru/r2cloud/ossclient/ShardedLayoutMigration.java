@@ -0,0 +1,146 @@
+package ru.r2cloud.ossclient;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Converts flat {@link FileOssClient} store into the sharded layout. Files are
+ * moved, so source and target should be on the same filesystem. Migration can
+ * be restarted after failure. Stores should not be used during migration.
+ * 
+ * <pre>
+ * java -cp ossClient.jar ru.r2cloud.ossclient.ShardedLayoutMigration &lt;flat basePath&gt; &lt;sharded basePath&gt; [shardLevels]
+ * </pre>
+ */
+public class ShardedLayoutMigration {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ShardedLayoutMigration.class);
+
+	private ShardedLayoutMigration() {
+		// do nothing
+	}
+
+	/**
+	 * Content type, user metadata and expiration are migrated together with
+	 * the object.
+	 * 
+	 * @param source - base path of the flat store. Empty directories are
+	 *               removed after migration
+	 * @param target - started sharded client. Must not be inside the source
+	 * @return number of migrated objects
+	 * @throws IOException  - on failure to walk the source
+	 * @throws OssException - on failure to move the object
+	 */
+	public static long migrate(File source, FileOssClient target) throws IOException, OssException {
+		Path sourcePath = source.toPath().toAbsolutePath();
+		// reads expiry index of the source. expired objects are migrated and
+		// deleted by the target
+		FileOssClient flat = new FileOssClient();
+		flat.setBasePath(sourcePath.toString());
+		flat.setSweepIntervalMillis(0);
+		flat.start();
+		Path expiryIndex = sourcePath.resolve(FileOssClient.EXPIRY_FILENAME);
+		long[] result = new long[1];
+		try {
+			Files.walkFileTree(sourcePath, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					if (FileOssClient.isReserved(file.toFile())) {
+						if (!file.equals(expiryIndex)) {
+							deleteOrphan(file.toFile());
+						}
+						return FileVisitResult.CONTINUE;
+					}
+					StringBuilder name = new StringBuilder();
+					for (Path cur : sourcePath.relativize(file)) {
+						name.append('/').append(cur.toString());
+					}
+					String path = name.toString();
+					try {
+						FileEntry metadata = FileOssClient.readAnyMetadata(file.toFile());
+						target.moveIn(file.toFile(), path, metadata.getContentType(), metadata.getMetadata(), flat.getExpiresAt(path));
+					} catch (OssException e) {
+						throw new IOException(e);
+					}
+					Files.deleteIfExists(FileOssClient.sidecarFor(file.toFile()));
+					result[0]++;
+					if (result[0] % 10000 == 0) {
+						LOG.info("migrated: {}", result[0]);
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+					// sidecar removed together with the migrated object
+					if (exc instanceof NoSuchFileException) {
+						return FileVisitResult.CONTINUE;
+					}
+					throw exc;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+					if (!dir.equals(sourcePath)) {
+						try {
+							Files.deleteIfExists(dir);
+						} catch (DirectoryNotEmptyException e) {
+							LOG.info("directory is not empty: {}", dir);
+						}
+					}
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			if (e.getCause() instanceof OssException) {
+				throw (OssException) e.getCause();
+			}
+			throw e;
+		} finally {
+			flat.stop();
+		}
+		// all expirations are in the target now
+		Files.deleteIfExists(expiryIndex);
+		return result[0];
+	}
+
+	// sidecar of already migrated object or leftover temp file
+	private static void deleteOrphan(File file) throws IOException {
+		File owner = FileOssClient.sidecarOwner(file);
+		if (owner != null && owner.exists()) {
+			return;
+		}
+		Files.deleteIfExists(file.toPath());
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.out.println("usage: ShardedLayoutMigration <flat basePath> <sharded basePath> [shardLevels]");
+			System.exit(1);
+			return;
+		}
+		FileOssClient target = new FileOssClient();
+		target.setBasePath(args[1]);
+		target.setSharded(true);
+		if (args.length > 2) {
+			target.setShardLevels(Integer.parseInt(args[2]));
+		}
+		target.start();
+		try {
+			long total = migrate(new File(args[0]), target);
+			LOG.info("migration completed. objects: {}", total);
+		} finally {
+			target.stop();
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package ru.r2cloud.ossclient;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Concurrent callers with the same key share single in-flight request
+ */
+class SingleFlight<T> {
+
+	private final ConcurrentHashMap<String, Flight<T>> inflight = new ConcurrentHashMap<>();
+	private final AtomicLong coalesced = new AtomicLong();
+	private final Sharing<T> sharing;
+	private final Consumer<T> abandon;
+
+	/**
+	 * @param sharing - called once with the number of callers sharing result
+	 * @param abandon - called for each caller which stopped waiting before
+	 *                result was ready
+	 */
+	SingleFlight(Sharing<T> sharing, Consumer<T> abandon) {
+		this.sharing = sharing;
+		this.abandon = abandon;
+	}
+
+	T execute(String key, Loader<T> loader) throws OssException {
+		Flight<T> current = new Flight<>();
+		Flight<T> flight = inflight.compute(key, (k, existing) -> {
+			if (existing == null) {
+				return current;
+			}
+			existing.participants++;
+			return existing;
+		});
+		if (flight != current) {
+			coalesced.incrementAndGet();
+			return await(flight);
+		}
+		T result;
+		try {
+			result = loader.load();
+		} catch (Throwable e) {
+			// waiters must not hang on Error
+			inflight.remove(key, current);
+			current.future.completeExceptionally(e);
+			throw e;
+		}
+		// nobody can join after removal. number of participants is final
+		inflight.remove(key, current);
+		sharing.share(result, current.participants);
+		current.future.complete(result);
+		return result;
+	}
+
+	long getCoalesced() {
+		return coalesced.get();
+	}
+
+	private T await(Flight<T> flight) throws OssException {
+		try {
+			return flight.future.get();
+		} catch (InterruptedException e) {
+			// this caller is already counted in participants
+			flight.future.thenAccept(abandon);
+			Thread.currentThread().interrupt();
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "interrupted", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof OssException) {
+				OssException ossCause = (OssException) cause;
+				throw new OssException(ossCause.getCode(), ossCause.getMessage(), ossCause);
+			}
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to process", cause);
+		}
+	}
+
+	interface Loader<T> {
+
+		T load() throws OssException;
+	}
+
+	interface Sharing<T> {
+
+		void share(T value, int participants);
+	}
+
+	private static class Flight<T> {
+
+		private final CompletableFuture<T> future = new CompletableFuture<>();
+		// guarded by ConcurrentHashMap#compute
+		private int participants = 1;
+	}
+}
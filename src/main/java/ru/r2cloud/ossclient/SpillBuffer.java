@@ -0,0 +1,94 @@
+package ru.r2cloud.ossclient;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps small content in memory and spills bigger content to temp file. Can
+ * be read multiple times until released by every reader
+ */
+class SpillBuffer {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SpillBuffer.class);
+
+	private final AtomicInteger references = new AtomicInteger(1);
+	private byte[] data;
+	private File file;
+	private long length;
+	private FileEntry metadata;
+
+	static SpillBuffer read(InputStream is, int memoryThreshold, String tempDirectory) throws IOException {
+		SpillBuffer result = new SpillBuffer();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		OutputStream os = baos;
+		try {
+			int read;
+			while ((read = is.read(buffer)) != -1) {
+				if (result.file == null && baos.size() + read > memoryThreshold) {
+					result.file = File.createTempFile("oss", ".tmp", tempDirectory != null ? new File(tempDirectory) : null);
+					os = new FileOutputStream(result.file);
+					baos.writeTo(os);
+					baos = null;
+				}
+				os.write(buffer, 0, read);
+				result.length += read;
+			}
+		} catch (Throwable e) {
+			result.release();
+			throw e;
+		} finally {
+			if (os != baos) {
+				os.close();
+			}
+		}
+		if (baos != null) {
+			result.data = baos.toByteArray();
+		}
+		return result;
+	}
+
+	InputStream openInputStream() throws IOException {
+		if (file != null) {
+			return new BufferedInputStream(new FileInputStream(file));
+		}
+		return new ByteArrayInputStream(data);
+	}
+
+	FileEntry getMetadata() {
+		return metadata;
+	}
+
+	void setMetadata(FileEntry metadata) {
+		this.metadata = metadata;
+	}
+
+	long getLength() {
+		return length;
+	}
+
+	void retain(int count) {
+		references.addAndGet(count);
+	}
+
+	void release() {
+		if (references.decrementAndGet() > 0) {
+			return;
+		}
+		data = null;
+		if (file != null && !file.delete()) {
+			LOG.info("unable to delete temp file: {}", file.getAbsolutePath());
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package ru.r2cloud.ossclient;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+
+/**
+ * Builds urls and headers of Swift requests. Created once per auth token, so
+ * container url and auth header are not rebuilt on every request. Every
+ * component is percent-encoded as UTF-8
+ */
+final class SwiftRequests {
+
+	static final Header[] NO_HEADERS = new Header[0];
+	static final String METADATA_HEADER_PREFIX = "X-Object-Meta-";
+	// swift convention for the segments of the large objects
+	static final String SEGMENTS_CONTAINER_SUFFIX = "_segments";
+
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+	// unreserved characters from RFC 3986 and "/"
+	private static final boolean[] SAFE = new boolean[128];
+
+	static {
+		for (char c = 'a'; c <= 'z'; c++) {
+			SAFE[c] = true;
+		}
+		for (char c = 'A'; c <= 'Z'; c++) {
+			SAFE[c] = true;
+		}
+		for (char c = '0'; c <= '9'; c++) {
+			SAFE[c] = true;
+		}
+		for (char c : new char[] { '-', '.', '_', '~', '/' }) {
+			SAFE[c] = true;
+		}
+	}
+
+	private final String containerUrl;
+	private final String container;
+	private final String segmentsContainerUrl;
+	private final String segmentsContainer;
+	private final Header authHeader;
+
+	SwiftRequests(String storageUrl, String containerName, String authToken) {
+		this.container = encode(containerName);
+		this.containerUrl = storageUrl + "/" + container;
+		this.segmentsContainer = encode(containerName + SEGMENTS_CONTAINER_SUFFIX);
+		this.segmentsContainerUrl = storageUrl + "/" + segmentsContainer;
+		this.authHeader = new BasicHeader("X-Auth-Token", authToken);
+	}
+
+	Header getAuthHeader() {
+		return authHeader;
+	}
+
+	String getObjectUrl(String path) {
+		return containerUrl + encode(path);
+	}
+
+	/**
+	 * @param listingQuery - result of {@link #createListingQuery(ListRequest)}
+	 */
+	String getListingUrl(String listingQuery) {
+		return containerUrl + listingQuery;
+	}
+
+	String getSegmentsContainerUrl() {
+		return segmentsContainerUrl;
+	}
+
+	String getSegmentUrl(String path) {
+		return segmentsContainerUrl + encode(path);
+	}
+
+	String getSegmentsListingUrl(String listingQuery) {
+		return segmentsContainerUrl + listingQuery;
+	}
+
+	// value of X-Copy-From: "/container/object"
+	String getCopySource(String path) {
+		return "/" + container + encode(path);
+	}
+
+	// value of X-Object-Manifest: "container_segments/prefix"
+	String getManifest(String prefix) {
+		return segmentsContainer + encode(prefix);
+	}
+
+	/**
+	 * @param manifest - value of X-Object-Manifest
+	 * @return prefix of segments or null if they are not in the segments
+	 *         container
+	 */
+	String getSegmentsPrefix(String manifest) {
+		if (!manifest.startsWith(segmentsContainer + "/")) {
+			return null;
+		}
+		return decode(manifest.substring(segmentsContainer.length()));
+	}
+
+	/**
+	 * Query is independent of the token and storage url, so it is used as a
+	 * key of coalesced listings
+	 */
+	static String createListingQuery(ListRequest req) {
+		StringBuilder builder = new StringBuilder(64);
+		builder.append("/?format=json");
+		if (req.getLimit() > 0) {
+			builder.append("&limit=").append(req.getLimit());
+		}
+		appendParameter(builder, "marker", req.getMarker());
+		appendParameter(builder, "prefix", req.getPrefix());
+		appendParameter(builder, "path", req.getPath());
+		if (req.getDelimiter() != null) {
+			appendParameter(builder, "delimiter", req.getDelimiter().toString());
+		}
+		return builder.toString();
+	}
+
+	static Header[] createHeaders(String contentType, Map<String, String> metadata) {
+		int size = (contentType != null ? 1 : 0) + (metadata != null ? metadata.size() : 0);
+		if (size == 0) {
+			return NO_HEADERS;
+		}
+		Header[] result = new Header[size];
+		int index = 0;
+		if (contentType != null) {
+			result[index++] = new BasicHeader("Content-Type", contentType);
+		}
+		if (metadata != null) {
+			for (Entry<String, String> cur : metadata.entrySet()) {
+				result[index++] = new BasicHeader(METADATA_HEADER_PREFIX + cur.getKey(), cur.getValue());
+			}
+		}
+		return result;
+	}
+
+	static Header[] append(Header[] headers, Header header) {
+		Header[] result = new Header[headers.length + 1];
+		System.arraycopy(headers, 0, result, 0, headers.length);
+		result[headers.length] = header;
+		return result;
+	}
+
+	private static void appendParameter(StringBuilder builder, String name, String value) {
+		if (value == null) {
+			return;
+		}
+		builder.append('&').append(name).append('=');
+		encode(value, getSafePrefix(value), builder);
+	}
+
+	static String encode(String value) {
+		int safePrefix = getSafePrefix(value);
+		// most object names don't need encoding
+		if (safePrefix == value.length()) {
+			return value;
+		}
+		StringBuilder builder = new StringBuilder(value.length() + 16);
+		encode(value, safePrefix, builder);
+		return builder.toString();
+	}
+
+	private static void encode(String value, int safePrefix, StringBuilder builder) {
+		builder.append(value, 0, safePrefix);
+		if (safePrefix == value.length()) {
+			return;
+		}
+		byte[] bytes = value.substring(safePrefix).getBytes(StandardCharsets.UTF_8);
+		for (byte cur : bytes) {
+			int c = cur & 0xFF;
+			if (c < SAFE.length && SAFE[c]) {
+				builder.append((char) c);
+			} else {
+				builder.append('%').append(HEX[c >> 4]).append(HEX[c & 0xF]);
+			}
+		}
+	}
+
+	private static String decode(String value) {
+		if (value.indexOf('%') < 0) {
+			return value;
+		}
+		// not URLDecoder: "+" is not a space in the path
+		byte[] result = new byte[value.length()];
+		int length = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '%' && i + 2 < value.length()) {
+				result[length++] = (byte) Integer.parseInt(value.substring(i + 1, i + 3), 16);
+				i += 2;
+			} else {
+				result[length++] = (byte) c;
+			}
+		}
+		return new String(result, 0, length, StandardCharsets.UTF_8);
+	}
+
+	private static int getSafePrefix(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c >= SAFE.length || !SAFE[c]) {
+				return i;
+			}
+		}
+		return value.length();
+	}
+}
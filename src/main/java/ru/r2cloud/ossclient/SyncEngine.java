@@ -0,0 +1,263 @@
+package ru.r2cloud.ossclient;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Mirrors objects from the source into the destination. Both listings are
+ * streamed page by page and merged by name, so memory usage doesn't depend
+ * on the number of objects.
+ */
+public class SyncEngine {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SyncEngine.class);
+
+	private OssClient source;
+	private OssClient destination;
+	private int concurrency = 4;
+	private int pageSize = 10000;
+	private boolean dryRun;
+	private boolean deleteExtraneous;
+	private String tempDirectory = System.getProperty("java.io.tmpdir");
+
+	public SyncResult sync() throws OssException {
+		LOG.info("syncing. dry-run: {} delete extraneous: {}", dryRun, deleteExtraneous);
+		SyncResult result = new SyncResult();
+		ListingIterator src = new ListingIterator(source, pageSize);
+		ListingIterator dst = new ListingIterator(destination, pageSize);
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+		// limit number of queued tasks
+		Semaphore inflight = new Semaphore(concurrency * 2);
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				FileEntry srcEntry = src.peek();
+				FileEntry dstEntry = dst.peek();
+				if (srcEntry == null && dstEntry == null) {
+					break;
+				}
+				int comparison;
+				if (srcEntry == null) {
+					comparison = 1;
+				} else if (dstEntry == null) {
+					comparison = -1;
+				} else {
+					comparison = ListingIterator.normalize(srcEntry.getName()).compareTo(ListingIterator.normalize(dstEntry.getName()));
+				}
+				if (comparison < 0) {
+					src.next();
+					schedule(executor, inflight, upload(srcEntry, result), "upload", srcEntry.getName(), result);
+				} else if (comparison > 0) {
+					dst.next();
+					if (deleteExtraneous) {
+						schedule(executor, inflight, delete(dstEntry, result), "delete", dstEntry.getName(), result);
+					}
+				} else {
+					src.next();
+					dst.next();
+					if (isModified(srcEntry, dstEntry)) {
+						schedule(executor, inflight, upload(srcEntry, result), "upload", srcEntry.getName(), result);
+					} else {
+						result.onUnchanged();
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdown();
+			try {
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				executor.shutdownNow();
+				Thread.currentThread().interrupt();
+			}
+		}
+		// partial result would look like a completed sync
+		if (Thread.currentThread().isInterrupted()) {
+			LOG.info("sync interrupted: {}", result);
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "interrupted");
+		}
+		LOG.info("sync completed: {}", result);
+		return result;
+	}
+
+	private void schedule(ExecutorService executor, Semaphore inflight, SyncAction action, String actionName, String name, SyncResult result) throws InterruptedException {
+		if (dryRun) {
+			LOG.info("dry-run {}: {}", actionName, name);
+			action.plan();
+			return;
+		}
+		inflight.acquire();
+		executor.execute(() -> {
+			try {
+				action.execute();
+			} catch (Exception e) {
+				LOG.error("unable to {}: {}", actionName, name, e);
+				result.onFailure();
+			} finally {
+				inflight.release();
+			}
+		});
+	}
+
+	private SyncAction upload(FileEntry entry, SyncResult result) {
+		String path = ListingIterator.normalize(entry.getName());
+		return new SyncAction() {
+
+			@Override
+			public void plan() {
+				result.onUpload(entry.getBytes());
+			}
+
+			@Override
+			public void execute() throws OssException {
+				if (source instanceof FileOssClient) {
+					destination.submit(((FileOssClient) source).getFile(path), path);
+				} else {
+					File temp = downloadToTemp(path);
+					try {
+						destination.submit(temp, path);
+					} finally {
+						if (!temp.delete()) {
+							LOG.info("unable to delete temp file: {}", temp.getAbsolutePath());
+						}
+					}
+				}
+				result.onUpload(entry.getBytes());
+			}
+		};
+	}
+
+	private SyncAction delete(FileEntry entry, SyncResult result) {
+		String path = ListingIterator.normalize(entry.getName());
+		return new SyncAction() {
+
+			@Override
+			public void plan() {
+				result.onDelete();
+			}
+
+			@Override
+			public void execute() throws OssException {
+				destination.delete(path);
+				result.onDelete();
+			}
+		};
+	}
+
+	private File downloadToTemp(String path) throws OssException {
+		File temp;
+		try {
+			temp = File.createTempFile("sync", ".tmp", new File(tempDirectory));
+		} catch (IOException e) {
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to create temp file", e);
+		}
+		try {
+			source.download(path, is -> {
+				try {
+					Files.copy(is, temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (OssException | UncheckedIOException e) {
+			if (!temp.delete()) {
+				LOG.info("unable to delete temp file: {}", temp.getAbsolutePath());
+			}
+			if (e instanceof OssException) {
+				throw (OssException) e;
+			}
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to download: " + path, e);
+		}
+		return temp;
+	}
+
+	static boolean isModified(FileEntry src, FileEntry dst) {
+		if (src.getBytes() != dst.getBytes()) {
+			return true;
+		}
+		if (src.getHash() != null && dst.getHash() != null) {
+			return !src.getHash().equalsIgnoreCase(dst.getHash());
+		}
+		Long srcModified = parseLastModified(src.getLastModified());
+		Long dstModified = parseLastModified(dst.getLastModified());
+		// size is the only thing left to compare
+		if (srcModified == null || dstModified == null) {
+			return false;
+		}
+		// file was uploaded after it was modified
+		return srcModified > dstModified;
+	}
+
+	static Long parseLastModified(String lastModified) {
+		if (lastModified == null) {
+			return null;
+		}
+		// swift format. truncate microseconds
+		if (lastModified.length() >= 19 && lastModified.charAt(10) == 'T') {
+			SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US);
+			sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+			try {
+				return sdf.parse(lastModified.substring(0, 19)).getTime();
+			} catch (ParseException e) {
+				return null;
+			}
+		}
+		// java.util.Date#toString format used by FileOssClient
+		SimpleDateFormat sdf = new SimpleDateFormat("EEE MMM dd HH:mm:ss zzz yyyy", Locale.US);
+		try {
+			return sdf.parse(lastModified).getTime();
+		} catch (ParseException e) {
+			return null;
+		}
+	}
+
+	public void setSource(OssClient source) {
+		this.source = source;
+	}
+
+	public void setDestination(OssClient destination) {
+		this.destination = destination;
+	}
+
+	public void setConcurrency(int concurrency) {
+		this.concurrency = concurrency;
+	}
+
+	public void setPageSize(int pageSize) {
+		this.pageSize = pageSize;
+	}
+
+	public void setDryRun(boolean dryRun) {
+		this.dryRun = dryRun;
+	}
+
+	public void setDeleteExtraneous(boolean deleteExtraneous) {
+		this.deleteExtraneous = deleteExtraneous;
+	}
+
+	public void setTempDirectory(String tempDirectory) {
+		this.tempDirectory = tempDirectory;
+	}
+
+	private interface SyncAction {
+
+		void plan();
+
+		void execute() throws OssException;
+	}
+}
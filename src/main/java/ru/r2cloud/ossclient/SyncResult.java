@@ -0,0 +1,55 @@
+package ru.r2cloud.ossclient;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SyncResult {
+
+	private final AtomicLong uploaded = new AtomicLong();
+	private final AtomicLong uploadedBytes = new AtomicLong();
+	private final AtomicLong deleted = new AtomicLong();
+	private final AtomicLong unchanged = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	void onUpload(long bytes) {
+		uploaded.incrementAndGet();
+		uploadedBytes.addAndGet(bytes);
+	}
+
+	void onDelete() {
+		deleted.incrementAndGet();
+	}
+
+	void onUnchanged() {
+		unchanged.incrementAndGet();
+	}
+
+	void onFailure() {
+		failed.incrementAndGet();
+	}
+
+	public long getUploaded() {
+		return uploaded.get();
+	}
+
+	public long getUploadedBytes() {
+		return uploadedBytes.get();
+	}
+
+	public long getDeleted() {
+		return deleted.get();
+	}
+
+	public long getUnchanged() {
+		return unchanged.get();
+	}
+
+	public long getFailed() {
+		return failed.get();
+	}
+
+	@Override
+	public String toString() {
+		return "SyncResult [uploaded=" + uploaded + ", uploadedBytes=" + uploadedBytes + ", deleted=" + deleted + ", unchanged=" + unchanged + ", failed=" + failed + "]";
+	}
+
+}
@@ -0,0 +1,38 @@
+package ru.r2cloud.ossclient;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.http.entity.FileEntity;
+
+class ThrottledFileEntity extends FileEntity {
+
+	private final BandwidthLimiter limiter;
+	private final String trafficClass;
+
+	ThrottledFileEntity(File file, BandwidthLimiter limiter, String trafficClass) {
+		super(file);
+		this.limiter = limiter;
+		this.trafficClass = trafficClass;
+	}
+
+	@Override
+	public InputStream getContent() throws IOException {
+		return new ThrottledInputStream(new FileInputStream(file), limiter, trafficClass);
+	}
+
+	@Override
+	public void writeTo(OutputStream outStream) throws IOException {
+		try (InputStream is = getContent()) {
+			byte[] buffer = new byte[OUTPUT_BUFFER_SIZE];
+			int read;
+			while ((read = is.read(buffer)) != -1) {
+				outStream.write(buffer, 0, read);
+			}
+			outStream.flush();
+		}
+	}
+}
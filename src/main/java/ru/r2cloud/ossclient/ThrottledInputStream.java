@@ -0,0 +1,57 @@
+package ru.r2cloud.ossclient;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+class ThrottledInputStream extends FilterInputStream {
+
+	// keep chunks small, so other classes can be scheduled in between
+	private static final int MAX_CHUNK = 16 * 1024;
+
+	private final BandwidthLimiter limiter;
+	private final String trafficClass;
+
+	ThrottledInputStream(InputStream in, BandwidthLimiter limiter, String trafficClass) {
+		super(in);
+		this.limiter = limiter;
+		this.trafficClass = trafficClass;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int result = super.read();
+		if (result != -1) {
+			acquire(1);
+		}
+		return result;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int result = super.read(b, off, Math.min(len, MAX_CHUNK));
+		if (result > 0) {
+			acquire(result);
+		}
+		return result;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long result = super.skip(Math.min(n, MAX_CHUNK));
+		if (result > 0) {
+			acquire(result);
+		}
+		return result;
+	}
+
+	private void acquire(long amount) throws IOException {
+		try {
+			limiter.acquireBytes(trafficClass, amount);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while throttled");
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package ru.r2cloud.ossclient;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Records pool wait and connect time into {@link RequestTimings} of the
+ * calling thread
+ */
+class TimingConnectionManager implements HttpClientConnectionManager {
+
+	private final HttpClientConnectionManager delegate;
+
+	TimingConnectionManager(HttpClientConnectionManager delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+		ConnectionRequest request = delegate.requestConnection(route, state);
+		return new ConnectionRequest() {
+
+			@Override
+			public boolean cancel() {
+				return request.cancel();
+			}
+
+			@Override
+			public HttpClientConnection get(long timeout, TimeUnit tunit) throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+				long start = System.nanoTime();
+				try {
+					return request.get(timeout, tunit);
+				} finally {
+					RequestTimings timings = RequestTimings.current();
+					if (timings != null) {
+						timings.onPoolWait(System.nanoTime() - start);
+					}
+				}
+			}
+		};
+	}
+
+	@Override
+	public void releaseConnection(HttpClientConnection conn, Object newState, long validDuration, TimeUnit timeUnit) {
+		delegate.releaseConnection(conn, newState, validDuration, timeUnit);
+	}
+
+	@Override
+	public void connect(HttpClientConnection conn, HttpRoute route, int connectTimeout, HttpContext context) throws IOException {
+		long start = System.nanoTime();
+		try {
+			delegate.connect(conn, route, connectTimeout, context);
+		} finally {
+			recordConnect(start);
+		}
+	}
+
+	// tls over proxy tunnel
+	@Override
+	public void upgrade(HttpClientConnection conn, HttpRoute route, HttpContext context) throws IOException {
+		long start = System.nanoTime();
+		try {
+			delegate.upgrade(conn, route, context);
+		} finally {
+			recordConnect(start);
+		}
+	}
+
+	@Override
+	public void routeComplete(HttpClientConnection conn, HttpRoute route, HttpContext context) throws IOException {
+		delegate.routeComplete(conn, route, context);
+	}
+
+	@Override
+	public void closeIdleConnections(long idletime, TimeUnit tunit) {
+		delegate.closeIdleConnections(idletime, tunit);
+	}
+
+	@Override
+	public void closeExpiredConnections() {
+		delegate.closeExpiredConnections();
+	}
+
+	@Override
+	public void shutdown() {
+		delegate.shutdown();
+	}
+
+	private static void recordConnect(long start) {
+		RequestTimings timings = RequestTimings.current();
+		if (timings != null) {
+			timings.onConnect(System.nanoTime() - start);
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package ru.r2cloud.ossclient;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copy loops for downloading into channels and files
+ */
+final class Transfers {
+
+	static final int BUFFER_SIZE = 256 * 1024;
+	private static final int POOL_SIZE = 8;
+	// shared instead of thread local: virtual threads would allocate a direct
+	// buffer per task and never reuse it
+	private static final BlockingQueue<ByteBuffer> BUFFERS = new ArrayBlockingQueue<>(POOL_SIZE);
+	private static final AtomicInteger POOLED = new AtomicInteger();
+
+	static long copy(InputStream is, WritableByteChannel target) throws IOException {
+		if (is instanceof FileInputStream) {
+			return transfer(((FileInputStream) is).getChannel(), target);
+		}
+		ReadableByteChannel source = Channels.newChannel(is);
+		ByteBuffer buffer = acquire();
+		try {
+			long result = 0;
+			while (source.read(buffer) >= 0 || buffer.position() > 0) {
+				buffer.flip();
+				result += target.write(buffer);
+				buffer.compact();
+			}
+			return result;
+		} finally {
+			release(buffer);
+		}
+	}
+
+	private static ByteBuffer acquire() {
+		ByteBuffer result = BUFFERS.poll();
+		if (result != null) {
+			return result;
+		}
+		// direct memory is bounded by the pool. extra concurrent copies use
+		// heap buffers
+		if (POOLED.incrementAndGet() <= POOL_SIZE) {
+			return ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+		POOLED.decrementAndGet();
+		return ByteBuffer.allocate(BUFFER_SIZE);
+	}
+
+	private static void release(ByteBuffer buffer) {
+		if (!buffer.isDirect()) {
+			return;
+		}
+		buffer.clear();
+		BUFFERS.offer(buffer);
+	}
+
+	// kernel copies data without user space buffers when possible
+	static long transfer(FileChannel source, WritableByteChannel target) throws IOException {
+		long position = source.position();
+		long size = source.size();
+		long result = 0;
+		while (position < size) {
+			long transferred = source.transferTo(position, size - position, target);
+			if (transferred <= 0) {
+				break;
+			}
+			position += transferred;
+			result += transferred;
+		}
+		return result;
+	}
+
+	static long write(ByteBuffer data, WritableByteChannel target) throws IOException {
+		long result = 0;
+		while (data.hasRemaining()) {
+			result += target.write(data);
+		}
+		return result;
+	}
+
+	// target is replaced only after successful download
+	static long download(OssClient client, String path, Path target) throws OssException {
+		Path absolute = target.toAbsolutePath();
+		Path temp = absolute.resolveSibling("." + absolute.getFileName() + "." + UUID.randomUUID() + ".part");
+		try {
+			long result;
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+				result = client.download(path, channel);
+			}
+			Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return result;
+		} catch (IOException e) {
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to write: " + absolute, e);
+		} finally {
+			try {
+				Files.deleteIfExists(temp);
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	private Transfers() {
+		// do nothing
+	}
+}
@@ -0,0 +1,95 @@
+package ru.r2cloud.ossclient;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sidecar file with completed segments of the upload. The first line
+ * identifies the upload, so checkpoint of the modified file is ignored
+ */
+class UploadCheckpoint implements AutoCloseable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(UploadCheckpoint.class);
+
+	private final File sidecar;
+	private final Set<Integer> completed = new HashSet<>();
+	private FileChannel channel;
+
+	UploadCheckpoint(File sidecar) {
+		this.sidecar = sidecar;
+	}
+
+	void open(String header) throws IOException {
+		if (sidecar.exists()) {
+			try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(sidecar), StandardCharsets.UTF_8))) {
+				String curLine = r.readLine();
+				if (header.equals(curLine)) {
+					while ((curLine = r.readLine()) != null) {
+						try {
+							completed.add(Integer.valueOf(curLine.trim()));
+						} catch (NumberFormatException e) {
+							// partially written line
+							break;
+						}
+					}
+				} else {
+					LOG.info("file was modified since the last upload. starting from scratch: {}", sidecar.getAbsolutePath());
+				}
+			}
+		}
+		// rewrite to drop partially written line
+		channel = FileChannel.open(sidecar.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		StringBuilder content = new StringBuilder(header);
+		for (Integer cur : completed) {
+			content.append('\n').append(cur);
+		}
+		write(content.toString());
+	}
+
+	boolean isCompleted(int segment) {
+		return completed.contains(segment);
+	}
+
+	int getCompleted() {
+		return completed.size();
+	}
+
+	void markCompleted(int segment) throws IOException {
+		completed.add(segment);
+		write(String.valueOf(segment));
+	}
+
+	void delete() throws IOException {
+		close();
+		Files.deleteIfExists(sidecar.toPath());
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+	}
+
+	private void write(String line) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		channel.force(false);
+	}
+}
@@ -0,0 +1,624 @@
+package ru.r2cloud.ossclient;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records submit and delete in the local append-only journal and returns
+ * immediately. Background workers drain the journal into the delegate. Pending
+ * operations are replayed after restart.
+ */
+public class WriteBehindOssClient implements OssClient {
+
+	private static final Logger LOG = LoggerFactory.getLogger(WriteBehindOssClient.class);
+	private static final String ADD = "ADD";
+	private static final String DONE = "DONE";
+
+	private OssClient delegate;
+	private String basePath;
+	private int workers = 2;
+	private int batchSize = 16;
+	private long retryDelayMillis = 1000;
+	private long maxRetryDelayMillis = 60000;
+	private boolean sync = true;
+	private long compactThreshold = 1024 * 1024;
+	private boolean metadataInSidecar;
+
+	private final Lock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+	private final LinkedHashMap<Long, Entry> pending = new LinkedHashMap<>();
+	private final Set<String> inflightPaths = new HashSet<>();
+	private final List<Thread> threads = new ArrayList<>();
+	private FileOssClient staging;
+	private File journalFile;
+	// not a FileChannel: interrupted write closes the channel for everyone
+	private FileOutputStream journal;
+	private Writer journalWriter;
+	private long nextId;
+	private volatile boolean running;
+
+	public void start() throws OssException {
+		File baseDir = new File(basePath);
+		staging = new FileOssClient();
+		staging.setBasePath(new File(baseDir, "staging").getAbsolutePath());
+		staging.setMetadataInSidecar(metadataInSidecar);
+		staging.start();
+		journalFile = new File(baseDir, "journal.log");
+		try {
+			replay();
+			compact();
+		} catch (IOException e) {
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to read journal", e);
+		}
+		removeOrphans();
+		LOG.info("pending operations after restart: {}", pending.size());
+		running = true;
+		for (int i = 0; i < workers; i++) {
+			Thread cur = new Thread(this::drain, "oss-write-behind-" + i);
+			cur.setDaemon(true);
+			cur.start();
+			threads.add(cur);
+		}
+	}
+
+	public void stop() {
+		running = false;
+		for (Thread cur : threads) {
+			cur.interrupt();
+		}
+		for (Thread cur : threads) {
+			try {
+				cur.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		threads.clear();
+		lock.lock();
+		try {
+			if (journal != null) {
+				journalWriter.close();
+				journal = null;
+			}
+		} catch (IOException e) {
+			LOG.info("unable to close journal", e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void submit(File file, String path) throws OssException {
+		submit(file, path, null, null);
+	}
+
+	@Override
+	public void submit(File file, String path, String contentType, Map<String, String> metadata) throws OssException {
+		submit(file, path, contentType, metadata, 0);
+	}
+
+	/**
+	 * Expiration is applied when the operation is drained. Operation is
+	 * dropped if it expired before that or if the delegate doesn't support
+	 * expiration
+	 */
+	@Override
+	public void submit(File file, String path, String contentType, Map<String, String> metadata, Instant expiresAt) throws OssException {
+		submit(file, path, contentType, metadata, expiresAt.toEpochMilli());
+	}
+
+	// expiresAt is 0 for permanent object
+	private void submit(File file, String path, String contentType, Map<String, String> metadata, long expiresAt) throws OssException {
+		long id;
+		lock.lock();
+		try {
+			id = nextId++;
+		} finally {
+			lock.unlock();
+		}
+		// stage before the journal record. orphan staged files are
+		// removed on start
+		staging.submit(file, "/" + id, contentType, metadata);
+		if (sync) {
+			try {
+				staging.sync("/" + id);
+			} catch (IOException e) {
+				deleteStaged(id);
+				throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to sync staged file", e);
+			}
+		}
+		lock.lock();
+		try {
+			enqueue(new Entry(id, Operation.SUBMIT, path, System.currentTimeMillis(), expiresAt));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void delete(String path) throws OssException {
+		lock.lock();
+		try {
+			enqueue(new Entry(nextId++, Operation.DELETE, path, System.currentTimeMillis(), 0));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void download(String path, Callback f) throws OssException {
+		Entry latest = findPending(path);
+		if (latest == null) {
+			delegate.download(path, f);
+			return;
+		}
+		// read your own writes
+		FileEntry metadata;
+		try {
+			metadata = stagedStat(latest, path);
+		} catch (OssException e) {
+			// uploaded and removed concurrently
+			delegate.download(path, f);
+			return;
+		}
+		try (InputStream is = new FileInputStream(staging.getFile("/" + latest.id))) {
+			f.onMetadata(metadata);
+			f.onData(is);
+		} catch (IOException e) {
+			delegate.download(path, f);
+		}
+	}
+
+	@Override
+	public FileEntry stat(String path) throws OssException {
+		Entry latest = findPending(path);
+		if (latest != null) {
+			try {
+				return stagedStat(latest, path);
+			} catch (OssException e) {
+				// uploaded and removed concurrently
+			}
+		}
+		return delegate.stat(path);
+	}
+
+	private Entry findPending(String path) throws OssException {
+		lock.lock();
+		try {
+			Entry latest = findLatest(path);
+			// expired staged object is not readable, same as in the delegate
+			if (latest != null && (latest.operation == Operation.DELETE || (latest.expiresAt > 0 && latest.expiresAt <= System.currentTimeMillis()))) {
+				throw new OssException(OssException.NOT_FOUND, "not found: " + path);
+			}
+			return latest;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private FileEntry stagedStat(Entry latest, String path) throws OssException {
+		FileEntry result = staging.stat("/" + latest.id);
+		result.setName(path);
+		return result;
+	}
+
+	@Override
+	public List<FileEntry> listFiles(ListRequest req) throws OssException {
+		// pending operations are not visible until drained
+		return delegate.listFiles(req);
+	}
+
+	/**
+	 * @return number of operations not yet applied to the delegate
+	 */
+	public int getQueueDepth() {
+		lock.lock();
+		try {
+			return pending.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return age of the oldest pending operation or 0 if queue is empty
+	 */
+	public long getOldestPendingAgeMillis() {
+		lock.lock();
+		try {
+			if (pending.isEmpty()) {
+				return 0;
+			}
+			return System.currentTimeMillis() - pending.values().iterator().next().createdAt;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void enqueue(Entry entry) throws OssException {
+		try {
+			append(format(entry));
+			flush();
+		} catch (IOException e) {
+			deleteStaged(entry.id);
+			throw new OssException(OssException.INTERNAL_SERVER_ERROR, "unable to write journal", e);
+		}
+		// newer operation supersedes pending older operations on the same path
+		List<Entry> superseded = new ArrayList<>();
+		for (Entry cur : pending.values()) {
+			if (cur.path.equals(entry.path) && !cur.inflight) {
+				superseded.add(cur);
+			}
+		}
+		pending.put(entry.id, entry);
+		if (!superseded.isEmpty()) {
+			complete(superseded);
+		}
+		changed.signalAll();
+	}
+
+	private void drain() {
+		List<Entry> batch = new ArrayList<>();
+		while (running && !Thread.currentThread().isInterrupted()) {
+			lock.lock();
+			try {
+				long waitMillis = takeBatch(batch);
+				if (batch.isEmpty()) {
+					if (waitMillis > 0) {
+						changed.await(waitMillis, TimeUnit.MILLISECONDS);
+					} else {
+						changed.await();
+					}
+					continue;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} finally {
+				lock.unlock();
+			}
+			List<Entry> completed = new ArrayList<>(batch.size());
+			for (Entry cur : batch) {
+				// stop() interrupts workers. delegate might return normally
+				// without finishing the operation. keep it for replay
+				if (apply(cur) && !Thread.currentThread().isInterrupted()) {
+					completed.add(cur);
+				}
+			}
+			lock.lock();
+			try {
+				for (Entry cur : batch) {
+					inflightPaths.remove(cur.path);
+					cur.inflight = false;
+				}
+				complete(completed);
+				changed.signalAll();
+			} finally {
+				lock.unlock();
+			}
+			batch.clear();
+		}
+	}
+
+	// guarded by lock. returns time to wait for the next retry
+	private long takeBatch(List<Entry> batch) {
+		long now = System.currentTimeMillis();
+		long waitMillis = 0;
+		Set<String> seen = new HashSet<>();
+		for (Entry cur : pending.values()) {
+			// keep order of operations on the same path
+			if (!seen.add(cur.path) || inflightPaths.contains(cur.path)) {
+				continue;
+			}
+			if (cur.notBefore > now) {
+				long curWait = cur.notBefore - now;
+				if (waitMillis == 0 || curWait < waitMillis) {
+					waitMillis = curWait;
+				}
+				continue;
+			}
+			inflightPaths.add(cur.path);
+			cur.inflight = true;
+			batch.add(cur);
+			if (batch.size() >= batchSize) {
+				break;
+			}
+		}
+		return waitMillis;
+	}
+
+	// returns true if entry is done and shouldn't be retried
+	private boolean apply(Entry entry) {
+		try {
+			// delegate would reject expiration in the past. the object
+			// doesn't exist after it, so previous version is removed
+			boolean expired = entry.operation == Operation.SUBMIT && entry.expiresAt > 0 && entry.expiresAt <= System.currentTimeMillis();
+			if (entry.operation == Operation.SUBMIT && !expired) {
+				FileEntry staged = staging.stat("/" + entry.id);
+				if (entry.expiresAt > 0) {
+					delegate.submit(staging.getFile("/" + entry.id), entry.path, staged.getContentType(), staged.getMetadata(), Instant.ofEpochMilli(entry.expiresAt));
+				} else {
+					delegate.submit(staging.getFile("/" + entry.id), entry.path, staged.getContentType(), staged.getMetadata());
+				}
+			} else {
+				try {
+					delegate.delete(entry.path);
+				} catch (OssException e) {
+					if (e.getCode() != OssException.NOT_FOUND) {
+						throw e;
+					}
+				}
+			}
+			return true;
+		} catch (UnsupportedOperationException e) {
+			LOG.error("dropping {} {}: {}", entry.operation, entry.path, e.getMessage());
+			return true;
+		} catch (OssException e) {
+			if (isPermanent(e)) {
+				LOG.error("dropping {} {}: {}", entry.operation, entry.path, e.getMessage());
+				return true;
+			}
+			retryLater(entry, e);
+			return false;
+		} catch (Exception e) {
+			retryLater(entry, e);
+			return false;
+		}
+	}
+
+	// client errors won't succeed on retry. except auth, timeout and throttling
+	private static boolean isPermanent(OssException e) {
+		int code = e.getCode();
+		return code >= 400 && code < 500 && code != 401 && code != 408 && code != 429;
+	}
+
+	private void retryLater(Entry entry, Exception e) {
+		entry.attempts++;
+		long delay = Math.min(maxRetryDelayMillis, retryDelayMillis * (1L << Math.min(entry.attempts - 1, 20)));
+		entry.notBefore = System.currentTimeMillis() + delay;
+		LOG.info("unable to apply {} {}. retry in {}ms: {}", entry.operation, entry.path, delay, e.getMessage());
+	}
+
+	// guarded by lock
+	private void complete(List<Entry> entries) {
+		if (entries.isEmpty()) {
+			return;
+		}
+		boolean recorded;
+		try {
+			for (Entry cur : entries) {
+				append(DONE + " " + cur.id);
+			}
+			flush();
+			recorded = true;
+		} catch (IOException e) {
+			// entries will be replayed after restart. submit is idempotent
+			LOG.error("unable to write journal", e);
+			recorded = false;
+		}
+		for (Entry cur : entries) {
+			pending.remove(cur.id);
+			// replay needs staged file
+			if (recorded && cur.operation == Operation.SUBMIT) {
+				deleteStaged(cur.id);
+			}
+		}
+		if (pending.isEmpty()) {
+			try {
+				if (journalFile.length() > compactThreshold) {
+					compact();
+				}
+			} catch (IOException e) {
+				LOG.error("unable to compact journal", e);
+			}
+		}
+	}
+
+	private Entry findLatest(String path) {
+		Entry result = null;
+		for (Entry cur : pending.values()) {
+			if (cur.path.equals(path)) {
+				result = cur;
+			}
+		}
+		return result;
+	}
+
+	private void replay() throws IOException {
+		if (!journalFile.exists()) {
+			return;
+		}
+		try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), StandardCharsets.UTF_8))) {
+			String curLine;
+			while ((curLine = r.readLine()) != null) {
+				String[] parts = curLine.split(" ");
+				// expiration is optional
+				if ((parts.length == 5 || parts.length == 6) && parts[0].equals(ADD)) {
+					long id = Long.parseLong(parts[1]);
+					long expiresAt = parts.length == 6 ? Long.parseLong(parts[5]) : 0;
+					pending.put(id, new Entry(id, Operation.valueOf(parts[2]), URLDecoder.decode(parts[4], StandardCharsets.UTF_8), Long.parseLong(parts[3]), expiresAt));
+					nextId = Math.max(nextId, id + 1);
+				} else if (parts.length == 2 && parts[0].equals(DONE)) {
+					pending.remove(Long.parseLong(parts[1]));
+				} else {
+					// partially written record after crash
+					LOG.info("skipping malformed journal record: {}", curLine);
+				}
+			}
+		}
+	}
+
+	// rewrite journal with pending operations only
+	private void compact() throws IOException {
+		if (journal != null) {
+			journalWriter.close();
+		}
+		File temp = new File(journalFile.getParentFile(), journalFile.getName() + ".tmp");
+		try (Writer w = new OutputStreamWriter(Files.newOutputStream(temp.toPath()), StandardCharsets.UTF_8)) {
+			for (Entry cur : pending.values()) {
+				w.append(format(cur)).append('\n');
+			}
+		}
+		Files.move(temp.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		journal = new FileOutputStream(journalFile, true);
+		journalWriter = new OutputStreamWriter(journal, StandardCharsets.UTF_8);
+	}
+
+	private static String format(Entry entry) {
+		String result = ADD + " " + entry.id + " " + entry.operation + " " + entry.createdAt + " " + URLEncoder.encode(entry.path, StandardCharsets.UTF_8);
+		if (entry.expiresAt > 0) {
+			result += " " + entry.expiresAt;
+		}
+		return result;
+	}
+
+	private void append(String record) throws IOException {
+		journalWriter.append(record).append('\n');
+	}
+
+	private void flush() throws IOException {
+		journalWriter.flush();
+		if (sync) {
+			journal.getFD().sync();
+		}
+	}
+
+	private void removeOrphans() {
+		File[] staged = staging.getFile("/").listFiles();
+		if (staged == null) {
+			return;
+		}
+		for (File cur : staged) {
+			// metadata sidecar belongs to the staged file
+			File owner = FileOssClient.sidecarOwner(cur);
+			Long id = parseId(owner != null ? owner : cur);
+			if (id != null && pending.containsKey(id)) {
+				continue;
+			}
+			// index files of the staging client
+			if (id == null && owner == null && FileOssClient.isReserved(cur) && !cur.getName().endsWith(FileOssClient.TEMP_SUFFIX)) {
+				continue;
+			}
+			deleteQuietly(cur);
+		}
+	}
+
+	private static Long parseId(File file) {
+		try {
+			return Long.valueOf(file.getName());
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private void deleteStaged(long id) {
+		File staged = staging.getFile("/" + id);
+		deleteQuietly(staged);
+		deleteQuietly(FileOssClient.sidecarFor(staged).toFile());
+	}
+
+	private static void deleteQuietly(File file) {
+		if (file.exists() && !file.delete()) {
+			LOG.info("unable to delete staged file: {}", file.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * @param metadataInSidecar - store metadata of staged files in sidecar
+	 *                          files. Detected automatically by default
+	 */
+	void setMetadataInSidecar(boolean metadataInSidecar) {
+		this.metadataInSidecar = metadataInSidecar;
+	}
+
+	/**
+	 * @param compactThreshold - journal is rewritten when it exceeds this size
+	 *                         and has no pending operations
+	 */
+	public void setCompactThreshold(long compactThreshold) {
+		this.compactThreshold = compactThreshold;
+	}
+
+	public void setDelegate(OssClient delegate) {
+		this.delegate = delegate;
+	}
+
+	public void setBasePath(String basePath) {
+		this.basePath = basePath;
+	}
+
+	public void setWorkers(int workers) {
+		this.workers = workers;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public void setRetryDelayMillis(long retryDelayMillis) {
+		this.retryDelayMillis = retryDelayMillis;
+	}
+
+	public void setMaxRetryDelayMillis(long maxRetryDelayMillis) {
+		this.maxRetryDelayMillis = maxRetryDelayMillis;
+	}
+
+	/**
+	 * @param sync - fsync staged file and journal before submit returns.
+	 *             Disabling it trades durability for latency
+	 */
+	public void setSync(boolean sync) {
+		this.sync = sync;
+	}
+
+	private enum Operation {
+		SUBMIT, DELETE
+	}
+
+	private static class Entry {
+
+		private final long id;
+		private final Operation operation;
+		private final String path;
+		private final long createdAt;
+		private final long expiresAt;
+		private int attempts;
+		private long notBefore;
+		private boolean inflight;
+
+		Entry(long id, Operation operation, String path, long createdAt, long expiresAt) {
+			this.id = id;
+			this.operation = operation;
+			this.path = path;
+			this.createdAt = createdAt;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package ru.r2cloud.ossclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AsyncOssClientTest {
+
+	private FileOssClient fileClient;
+	private AsyncOssClient client;
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testSubmitAndList() throws Exception {
+		File tempFile = new File(tempFolder.getRoot(), UUID.randomUUID().toString());
+		try (FileWriter fw = new FileWriter(tempFile)) {
+			fw.append(UUID.randomUUID().toString());
+		}
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			futures.add(client.submit(tempFile, "/data/" + i));
+		}
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+		ListRequest req = new ListRequest();
+		req.setPrefix("/data/");
+		assertEquals(100, client.listFiles(req).get().size());
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		try {
+			client.delete("/" + UUID.randomUUID().toString()).get();
+			fail("exception expected");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof OssException);
+			assertEquals(OssException.NOT_FOUND, ((OssException) e.getCause()).getCode());
+		}
+	}
+
+	@Before
+	public void start() throws Exception {
+		fileClient = new FileOssClient();
+		fileClient.setBasePath(tempFolder.newFolder().getAbsolutePath());
+		fileClient.start();
+
+		client = new AsyncOssClient();
+		client.setDelegate(fileClient);
+		client.start();
+	}
+
+	@After
+	public void stop() {
+		if (client != null) {
+			client.stop();
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package ru.r2cloud.ossclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class BandwidthLimiterTest {
+
+	@Test
+	public void testThrottle() throws Exception {
+		BandwidthLimiter limiter = new BandwidthLimiter();
+		limiter.setBytesPerSecond(100_000);
+		long start = System.nanoTime();
+		assertEquals(60_000, drain(new ThrottledInputStream(new ByteArrayInputStream(new byte[60_000]), limiter, BandwidthLimiter.BULK)));
+		long tookMillis = (System.nanoTime() - start) / 1_000_000;
+		// 10_000 burst, then 50_000 at 100_000 per second
+		assertTrue("took: " + tookMillis, tookMillis >= 400);
+	}
+
+	@Test
+	public void testUnlimited() throws Exception {
+		BandwidthLimiter limiter = new BandwidthLimiter();
+		limiter.setBytesPerSecond(100);
+		// change at runtime
+		limiter.setBytesPerSecond(0);
+		assertEquals(1_000_000, drain(new ThrottledInputStream(new ByteArrayInputStream(new byte[1_000_000]), limiter, BandwidthLimiter.BULK)));
+	}
+
+	@Test
+	public void testWeightedFair() throws Exception {
+		BandwidthLimiter limiter = new BandwidthLimiter();
+		limiter.setBytesPerSecond(1_000_000);
+		limiter.setWeight("a", 3);
+		limiter.setWeight("b", 1);
+		AtomicBoolean running = new AtomicBoolean(true);
+		AtomicLong a = new AtomicLong();
+		AtomicLong b = new AtomicLong();
+		Thread ta = new Thread(() -> consume(limiter, "a", a, running));
+		Thread tb = new Thread(() -> consume(limiter, "b", b, running));
+		ta.start();
+		tb.start();
+		Thread.sleep(1000);
+		running.set(false);
+		ta.join();
+		tb.join();
+		double ratio = (double) a.get() / b.get();
+		assertTrue("ratio: " + ratio, ratio > 2.0 && ratio < 4.5);
+	}
+
+	private static void consume(BandwidthLimiter limiter, String trafficClass, AtomicLong total, AtomicBoolean running) {
+		while (running.get()) {
+			try {
+				limiter.acquireBytes(trafficClass, 1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			total.addAndGet(1000);
+		}
+	}
+
+	private static long drain(InputStream is) throws Exception {
+		long result = 0;
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = is.read(buffer)) != -1) {
+			result += read;
+		}
+		return result;
+	}
+}
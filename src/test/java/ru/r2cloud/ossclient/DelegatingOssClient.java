@@ -0,0 +1,81 @@
+package ru.r2cloud.ossclient;
+
+import java.io.File;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+public class DelegatingOssClient implements OssClient {
+
+	private final OssClient delegate;
+	private volatile long delayMillis;
+	private volatile boolean failing;
+
+	public DelegatingOssClient(OssClient delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	public void submit(File file, String path) throws OssException {
+		simulate();
+		delegate.submit(file, path);
+	}
+
+	@Override
+	public void submit(File file, String path, String contentType, Map<String, String> metadata) throws OssException {
+		simulate();
+		delegate.submit(file, path, contentType, metadata);
+	}
+
+	@Override
+	public void submit(File file, String path, String contentType, Map<String, String> metadata, Instant expiresAt) throws OssException {
+		simulate();
+		delegate.submit(file, path, contentType, metadata, expiresAt);
+	}
+
+	@Override
+	public FileEntry stat(String path) throws OssException {
+		simulate();
+		return delegate.stat(path);
+	}
+
+	@Override
+	public void delete(String path) throws OssException {
+		simulate();
+		delegate.delete(path);
+	}
+
+	@Override
+	public void download(String path, Callback f) throws OssException {
+		simulate();
+		delegate.download(path, f);
+	}
+
+	@Override
+	public List<FileEntry> listFiles(ListRequest req) throws OssException {
+		simulate();
+		return delegate.listFiles(req);
+	}
+
+	private void simulate() throws OssException {
+		if (delayMillis > 0) {
+			try {
+				Thread.sleep(delayMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new OssException("interrupted");
+			}
+		}
+		if (failing) {
+			throw new OssException("simulated failure");
+		}
+	}
+
+	public void setDelayMillis(long delayMillis) {
+		this.delayMillis = delayMillis;
+	}
+
+	public void setFailing(boolean failing) {
+		this.failing = failing;
+	}
+}
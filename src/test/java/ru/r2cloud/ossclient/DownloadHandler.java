@@ -0,0 +1,31 @@
+package ru.r2cloud.ossclient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+public class DownloadHandler implements HttpHandler {
+
+	private final byte[] data;
+	private int requests;
+
+	public DownloadHandler(byte[] data) {
+		this.data = data;
+	}
+
+	@Override
+	public void handle(HttpExchange exchange) throws IOException {
+		requests++;
+		exchange.sendResponseHeaders(200, data.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(data);
+		}
+		exchange.close();
+	}
+
+	public int getRequests() {
+		return requests;
+	}
+}
@@ -1,14 +1,26 @@
 package ru.r2cloud.ossclient;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import org.junit.Before;
@@ -99,6 +111,28 @@ public class FileOssClientTest {
 		assertEquals("/a2/3.txt", result.get(0).getName());
 	}
 
+	@Test
+	public void testListOrder() throws Exception {
+		fileClient = new FileOssClient();
+		fileClient.setBasePath(tempFolder.newFolder().getAbsolutePath());
+		fileClient.start();
+		File file = createTempFile("1");
+		String[] names = new String[] { "/c/a-b", "/c/a.txt", "/c/a/1.txt", "/c/a/b/2.txt", "/c/a0", "/c/b" };
+		for (String cur : names) {
+			fileClient.submit(file, cur);
+		}
+		ListRequest req = new ListRequest();
+		req.setPrefix("/c/a");
+		req.setLimit(1);
+		for (int i = 0; i < names.length - 1; i++) {
+			List<FileEntry> result = fileClient.listFiles(req);
+			assertEquals(1, result.size());
+			assertEquals(names[i], result.get(0).getName());
+			req.setMarker(result.get(0).getName());
+		}
+		assertTrue(fileClient.listFiles(req).isEmpty());
+	}
+
 	@Test
 	public void testList3() throws Exception {
 		ListRequest req = new ListRequest();
@@ -122,6 +156,375 @@ public class FileOssClientTest {
 		assertEquals(3, result.size());
 	}
 
+	@Test
+	public void testDownloadToPath() throws Exception {
+		fileClient = new FileOssClient();
+		fileClient.setBasePath(tempFolder.newFolder().getAbsolutePath());
+		fileClient.start();
+		String data = UUID.randomUUID().toString();
+		fileClient.submit(createTempFile(data), "/a/1.txt");
+
+		Path target = tempFolder.getRoot().toPath().resolve("1.txt");
+		Files.write(target, new byte[] { 1 });
+		assertEquals(data.length(), fileClient.download("/a/1.txt", target));
+		assertEquals(data, new String(Files.readAllBytes(target), StandardCharsets.UTF_8));
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		assertEquals(data.length(), fileClient.download("/a/1.txt", Channels.newChannel(baos)));
+		assertEquals(data, new String(baos.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testCopyMove() throws Exception {
+		for (boolean sharded : new boolean[] { false, true }) {
+			FileOssClient client = new FileOssClient();
+			client.setBasePath(tempFolder.newFolder().getAbsolutePath());
+			client.setSharded(sharded);
+			client.start();
+			client.submit(createTempFile("1"), "/a/1.txt");
+			client.copy("/a/1.txt", "/b/1.txt");
+			// copy is not affected by the source change
+			client.submit(createTempFile("2"), "/a/1.txt");
+			assertEquals("1", read(client, "/b/1.txt"));
+			client.move("/a/1.txt", "/c/1.txt");
+			assertEquals("2", read(client, "/c/1.txt"));
+			assertFalse(client.getFile("/a/1.txt").exists());
+			assertEquals(2, client.listFiles(new ListRequest()).size());
+			client.move("/c/1.txt", "/c/1.txt");
+			assertEquals("2", read(client, "/c/1.txt"));
+			// not empty directory can't be replaced
+			File blocked = client.getFile("/x");
+			assertTrue(blocked.mkdirs());
+			assertTrue(new File(blocked, "1").createNewFile());
+			int before = client.listFiles(new ListRequest()).size();
+			try {
+				client.move("/c/1.txt", "/x");
+				fail("exception expected");
+			} catch (OssException e) {
+				assertEquals(before, client.listFiles(new ListRequest()).size());
+			}
+
+			Map<String, OssException> failed = client.copyAll(Collections.singletonMap("/a/1.txt", "/d/1.txt"));
+			assertEquals(OssException.NOT_FOUND, failed.get("/a/1.txt").getCode());
+			client.stop();
+		}
+	}
+
+	@Test
+	public void testMetadata() throws Exception {
+		for (boolean sidecar : new boolean[] { false, true }) {
+			FileOssClient client = new FileOssClient();
+			client.setBasePath(tempFolder.newFolder().getAbsolutePath());
+			client.setMetadataInSidecar(sidecar);
+			client.start();
+			client.submit(createTempFile("1"), "/a/1.txt", "text/plain", Collections.singletonMap("Station", "ABC"));
+			FileEntry entry = client.stat("/a/1.txt");
+			assertEquals("/a/1.txt", entry.getName());
+			assertEquals(1, entry.getBytes());
+			assertEquals("text/plain", entry.getContentType());
+			assertEquals(Collections.singletonMap("station", "ABC"), entry.getMetadata());
+
+			FileEntry[] received = new FileEntry[1];
+			client.download("/a/1.txt", new Callback() {
+
+				@Override
+				public void onMetadata(FileEntry metadata) {
+					received[0] = metadata;
+				}
+
+				@Override
+				public void onData(InputStream is) {
+					assertTrue(received[0] != null);
+				}
+			});
+			assertEquals("text/plain", received[0].getContentType());
+
+			client.copy("/a/1.txt", "/b/1.txt");
+			client.move("/a/1.txt", "/c/1.txt");
+			for (String cur : new String[] { "/b/1.txt", "/c/1.txt" }) {
+				assertEquals("text/plain", client.stat(cur).getContentType());
+				assertEquals("ABC", client.stat(cur).getMetadata().get("station"));
+			}
+			// sidecar files are not listed
+			assertEquals(2, client.listFiles(new ListRequest()).size());
+
+			// metadata is replaced on submit
+			client.submit(createTempFile("2"), "/b/1.txt");
+			assertEquals(null, client.stat("/b/1.txt").getContentType());
+			try {
+				client.stat("/a/1.txt");
+				fail("exception expected");
+			} catch (OssException e) {
+				assertEquals(OssException.NOT_FOUND, e.getCode());
+			}
+			client.stop();
+		}
+	}
+
+	@Test
+	public void testExpiry() throws Exception {
+		for (boolean sharded : new boolean[] { false, true }) {
+			File basePath = tempFolder.newFolder();
+			FileOssClient client = createExpiring(basePath, sharded);
+			client.submit(createTempFile("1"), "/a/1.txt", Instant.now().minusSeconds(1));
+			client.submit(createTempFile("2"), "/a/2.txt", Duration.ofHours(1));
+			client.submit(createTempFile("3"), "/a/3.txt", Instant.now().minusSeconds(1));
+			// permanent again
+			client.submit(createTempFile("3"), "/a/3.txt");
+			client.stop();
+
+			client = createExpiring(basePath, sharded);
+			try {
+				client.stat("/a/1.txt");
+				fail("exception expected");
+			} catch (OssException e) {
+				assertEquals(OssException.NOT_FOUND, e.getCode());
+			}
+			assertEquals("2", read(client, "/a/2.txt"));
+			assertEquals("3", read(client, "/a/3.txt"));
+			assertEquals(1, client.sweep());
+			assertEquals(0, client.sweep());
+			assertEquals(2, client.listFiles(new ListRequest()).size());
+			client.stop();
+		}
+	}
+
+	@Test
+	public void testDefaultStat() throws Exception {
+		FileOssClient files = new FileOssClient();
+		files.setBasePath(tempFolder.newFolder().getAbsolutePath());
+		files.start();
+		// only the required methods
+		OssClient client = new OssClient() {
+
+			@Override
+			public void submit(File file, String path) throws OssException {
+				files.submit(file, path);
+			}
+
+			@Override
+			public void delete(String path) throws OssException {
+				files.delete(path);
+			}
+
+			@Override
+			public void download(String path, Callback f) throws OssException {
+				files.download(path, f);
+			}
+
+			@Override
+			public List<FileEntry> listFiles(ListRequest req) throws OssException {
+				return files.listFiles(req);
+			}
+		};
+		client.submit(createTempFile("12"), "/a.txt");
+		client.submit(createTempFile("1"), "/a/b.txt");
+		assertEquals(2, client.stat("/a.txt").getBytes());
+		for (String missing : new String[] { "/a", "/a.t", "/c.txt" }) {
+			try {
+				client.stat(missing);
+				fail("exception expected");
+			} catch (OssException e) {
+				assertEquals(OssException.NOT_FOUND, e.getCode());
+			}
+		}
+		files.stop();
+	}
+
+	@Test
+	public void testSweeperStartsOnExpiringObject() throws Exception {
+		File basePath = tempFolder.newFolder();
+		FileOssClient client = new FileOssClient();
+		client.setBasePath(basePath.getAbsolutePath());
+		client.start();
+		client.submit(createTempFile("1"), "/1.txt");
+		assertFalse(client.isSweeperRunning());
+		client.submit(createTempFile("2"), "/2.txt", Duration.ofHours(1));
+		assertTrue(client.isSweeperRunning());
+		client.stop();
+		assertFalse(client.isSweeperRunning());
+
+		// restart with pending expiration
+		client.start();
+		assertTrue(client.isSweeperRunning());
+		client.stop();
+	}
+
+	@Test
+	public void testExpiryIndexIsNotObject() throws Exception {
+		File basePath = tempFolder.newFolder();
+		FileOssClient client = createExpiring(basePath, false);
+		client.stop();
+		client.setMetadataInSidecar(true);
+		client.start();
+		client.submit(createTempFile("1"), "/1.txt", Instant.now().minusSeconds(1));
+		client.submit(createTempFile("2"), "/expiry", "text/plain", null);
+		client.delete("/expiry");
+		try {
+			client.submit(createTempFile("3"), "/expiry.oss-meta");
+			fail("exception expected");
+		} catch (OssException e) {
+			// reserved name
+		}
+		client.stop();
+
+		client = createExpiring(basePath, false);
+		try {
+			client.stat("/1.txt");
+			fail("exception expected");
+		} catch (OssException e) {
+			assertEquals(OssException.NOT_FOUND, e.getCode());
+		}
+		assertEquals(1, client.listFiles(new ListRequest()).size());
+		client.stop();
+	}
+
+	private FileOssClient createExpiring(File basePath, boolean sharded) {
+		FileOssClient result = new FileOssClient();
+		result.setBasePath(basePath.getAbsolutePath());
+		result.setSharded(sharded);
+		result.setSweepIntervalMillis(0);
+		result.start();
+		return result;
+	}
+
+	private static String read(OssClient client, String path) throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		client.download(path, Channels.newChannel(baos));
+		return new String(baos.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testDownloadUnknown() throws Exception {
+		Path target = tempFolder.getRoot().toPath().resolve("1.txt");
+		try {
+			fileClient.download("/unknown", target);
+			fail("exception expected");
+		} catch (OssException e) {
+			assertEquals(OssException.NOT_FOUND, e.getCode());
+		}
+		// no partial files
+		assertEquals(0, tempFolder.getRoot().list().length);
+		try {
+			fileClient.download("/unknown", is -> fail("not expected"));
+			fail("exception expected");
+		} catch (OssException e) {
+			assertEquals(OssException.NOT_FOUND, e.getCode());
+		}
+	}
+
+	@Test
+	public void testShardedList() throws Exception {
+		FileOssClient sharded = createSharded(tempFolder.newFolder());
+		File tempFile = createTempFile(UUID.randomUUID().toString());
+		for (String cur : new String[] { "/b/2.txt", "/a/1.txt", "/a/3.txt", "/c.txt" }) {
+			sharded.submit(tempFile, cur);
+		}
+		assertFalse(new File(sharded.getFile("/a/1.txt").getParentFile().getParentFile().getParentFile(), "a").exists());
+
+		ListRequest req = new ListRequest();
+		req.setLimit(2);
+		List<FileEntry> result = sharded.listFiles(req);
+		assertEquals(2, result.size());
+		assertEquals("/a/1.txt", result.get(0).getName());
+		assertEquals(tempFile.length(), result.get(0).getBytes());
+		req.setMarker("/a/3.txt");
+		result = sharded.listFiles(req);
+		assertEquals(2, result.size());
+		assertEquals("/b/2.txt", result.get(0).getName());
+		assertEquals("/c.txt", result.get(1).getName());
+
+		req = new ListRequest();
+		req.setPrefix("/a/");
+		req.setMarker("/a/1.txt");
+		result = sharded.listFiles(req);
+		assertEquals(1, result.size());
+		assertEquals("/a/3.txt", result.get(0).getName());
+
+		// whole "directory"
+		sharded.delete("/a");
+		assertEquals(2, sharded.listFiles(new ListRequest()).size());
+		assertFalse(sharded.getFile("/a/1.txt").exists());
+	}
+
+	@Test
+	public void testShardedIndexReload() throws Exception {
+		File basePath = tempFolder.newFolder();
+		FileOssClient sharded = createSharded(basePath);
+		File tempFile = createTempFile(UUID.randomUUID().toString());
+		sharded.submit(tempFile, "/1.txt");
+		sharded.submit(tempFile, "/2.txt");
+		sharded.delete("/1.txt");
+		sharded.stop();
+
+		sharded = createSharded(basePath);
+		List<FileEntry> result = sharded.listFiles(new ListRequest());
+		assertEquals(1, result.size());
+		assertEquals("/2.txt", result.get(0).getName());
+		sharded.stop();
+	}
+
+	@Test
+	public void testMigration() throws Exception {
+		File flatPath = tempFolder.newFolder();
+		FileOssClient flat = new FileOssClient();
+		flat.setBasePath(flatPath.getAbsolutePath());
+		flat.start();
+		File tempFile = createTempFile(UUID.randomUUID().toString());
+		flat.submit(tempFile, "/a1/b1/1.txt");
+		flat.submit(tempFile, "/a2/3.txt");
+
+		FileOssClient sharded = createSharded(tempFolder.newFolder());
+		assertEquals(2, ShardedLayoutMigration.migrate(flatPath, sharded));
+		assertEquals(0, flatPath.list().length);
+		List<FileEntry> result = sharded.listFiles(new ListRequest());
+		assertEquals(2, result.size());
+		assertEquals("/a1/b1/1.txt", result.get(0).getName());
+		assertTrue(sharded.getFile("/a2/3.txt").exists());
+		sharded.stop();
+	}
+
+	@Test
+	public void testMigrationKeepsMetadataAndExpiry() throws Exception {
+		for (boolean sidecar : new boolean[] { false, true }) {
+			File flatPath = tempFolder.newFolder();
+			FileOssClient flat = new FileOssClient();
+			flat.setBasePath(flatPath.getAbsolutePath());
+			flat.setMetadataInSidecar(sidecar);
+			flat.setSweepIntervalMillis(0);
+			flat.start();
+			flat.submit(createTempFile("1"), "/a/1.txt", "text/plain", Collections.singletonMap("station", "ABC"), Instant.now().plus(Duration.ofHours(1)));
+			flat.submit(createTempFile("2"), "/a/2.txt", Instant.now().minusSeconds(1));
+			flat.submit(createTempFile("3"), "/3.txt");
+			flat.stop();
+
+			FileOssClient sharded = createSharded(tempFolder.newFolder());
+			assertEquals(3, ShardedLayoutMigration.migrate(flatPath, sharded));
+			assertEquals(0, flatPath.list().length);
+			assertEquals(3, sharded.listFiles(new ListRequest()).size());
+			FileEntry entry = sharded.stat("/a/1.txt");
+			assertEquals("text/plain", entry.getContentType());
+			assertEquals("ABC", entry.getMetadata().get("station"));
+			try {
+				sharded.stat("/a/2.txt");
+				fail("exception expected");
+			} catch (OssException e) {
+				assertEquals(OssException.NOT_FOUND, e.getCode());
+			}
+			assertEquals(1, sharded.sweep());
+			assertEquals(2, sharded.listFiles(new ListRequest()).size());
+			sharded.stop();
+		}
+	}
+
+	private FileOssClient createSharded(File basePath) {
+		FileOssClient result = new FileOssClient();
+		result.setBasePath(basePath.getAbsolutePath());
+		result.setSharded(true);
+		result.start();
+		return result;
+	}
+
 	@Before
 	public void start() {
 		fileClient = new FileOssClient();
@@ -0,0 +1,139 @@
+package ru.r2cloud.ossclient;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares {@link PackedOssClient} with {@link FileOssClient} on many small
+ * objects. Not a unit test. Run manually:
+ *
+ * <pre>
+ * java -Xmx2g -cp ... ru.r2cloud.ossclient.PackedOssClientBenchmark &lt;dir&gt; [objects] [objectSize]
+ * </pre>
+ *
+ * Defaults are 1_000_000 objects of 4096 bytes. Page cache should be dropped
+ * between runs for cold read numbers.
+ */
+public class PackedOssClientBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("usage: PackedOssClientBenchmark <dir> [objects] [objectSize]");
+			System.exit(1);
+			return;
+		}
+		File dir = new File(args[0]);
+		int objects = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+		int objectSize = args.length > 2 ? Integer.parseInt(args[2]) : 4096;
+
+		File payload = new File(dir, "payload.bin");
+		byte[] data = new byte[objectSize];
+		new Random(0).nextBytes(data);
+		Files.createDirectories(dir.toPath());
+		Files.write(payload.toPath(), data);
+
+		FileOssClient file = new FileOssClient();
+		file.setBasePath(new File(dir, "file").getAbsolutePath());
+		file.start();
+		run("FileOssClient", file, payload, objects, new File(dir, "file"));
+
+		PackedOssClient packed = new PackedOssClient();
+		packed.setBasePath(new File(dir, "packed").getAbsolutePath());
+		packed.setCompactIntervalMillis(0);
+		// every second object is deleted
+		packed.setCompactThreshold(0.75);
+		packed.start();
+		run("PackedOssClient", packed, payload, objects, new File(dir, "packed"));
+		long start = System.nanoTime();
+		int compacted = packed.compact();
+		System.out.printf("%-16s compact: %d segments in %d ms%n", "PackedOssClient", compacted, (System.nanoTime() - start) / 1_000_000);
+		printUsage("PackedOssClient", new File(dir, "packed"));
+		start = System.nanoTime();
+		packed.stop();
+		System.out.printf("%-16s snapshot: %d ms%n", "PackedOssClient", (System.nanoTime() - start) / 1_000_000);
+		start = System.nanoTime();
+		packed = new PackedOssClient();
+		packed.setBasePath(new File(dir, "packed").getAbsolutePath());
+		packed.setCompactIntervalMillis(0);
+		packed.start();
+		System.out.printf("%-16s restart: %d ms%n", "PackedOssClient", (System.nanoTime() - start) / 1_000_000);
+		packed.stop();
+	}
+
+	private static void run(String name, OssClient client, File payload, int objects, File basePath) throws Exception {
+		long start = System.nanoTime();
+		for (int i = 0; i < objects; i++) {
+			client.submit(payload, path(i));
+		}
+		report(name, "submit", objects, start);
+
+		Random random = new Random(1);
+		int reads = Math.min(objects, 100_000);
+		start = System.nanoTime();
+		for (int i = 0; i < reads; i++) {
+			client.download(path(random.nextInt(objects)), is -> {
+				try {
+					is.transferTo(OutputStream.nullOutputStream());
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		}
+		report(name, "random read", reads, start);
+
+		start = System.nanoTime();
+		long listed = 0;
+		ListRequest req = new ListRequest();
+		while (true) {
+			List<FileEntry> page = client.listFiles(req);
+			if (page.isEmpty()) {
+				break;
+			}
+			listed += page.size();
+			req.setMarker(page.get(page.size() - 1).getName());
+		}
+		report(name, "list", listed, start);
+
+		int deletes = objects / 2;
+		start = System.nanoTime();
+		for (int i = 0; i < deletes; i++) {
+			client.delete(path(i * 2));
+		}
+		report(name, "delete", deletes, start);
+
+		printUsage(name, basePath);
+	}
+
+	private static void printUsage(String name, File basePath) throws IOException {
+		long[] usage = new long[2];
+		Files.walkFileTree(basePath.toPath(), new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				usage[0]++;
+				// approximate allocation with 4k blocks
+				usage[1] += (attrs.size() + 4095) / 4096 * 4096;
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		System.out.printf("%-16s files: %d allocated: %d MB%n", name, usage[0], usage[1] / 1024 / 1024);
+	}
+
+	private static void report(String name, String operation, long count, long startNanos) {
+		long tookMillis = Math.max(1, (System.nanoTime() - startNanos) / 1_000_000);
+		System.out.printf("%-16s %-12s %9d ops in %7d ms %10.0f ops/s%n", name, operation, count, tookMillis, count * 1000.0 / tookMillis);
+	}
+
+	// two-level prefixes as telemetry: /station/day/id
+	private static String path(int index) {
+		return String.format("/%03d/%04d/%08d.bin", index % 100, (index / 100) % 1000, index);
+	}
+}
@@ -0,0 +1,227 @@
+package ru.r2cloud.ossclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PackedOssClientTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private File basePath;
+	private PackedOssClient client;
+
+	@Test
+	public void testSubmitDownloadList() throws Exception {
+		client.submit(createTempFile("1"), "/b/2.txt");
+		client.submit(createTempFile("2"), "/a/1.txt");
+		client.submit(createTempFile("3"), "/a/3.txt");
+		client.submit(createTempFile("4"), "/a/1.txt");
+		assertEquals("4", download("/a/1.txt"));
+
+		ListRequest req = new ListRequest();
+		req.setPrefix("/a/");
+		req.setMarker("/a/1.txt");
+		List<FileEntry> result = client.listFiles(req);
+		assertEquals(1, result.size());
+		assertEquals("/a/3.txt", result.get(0).getName());
+		assertEquals(1, result.get(0).getBytes());
+
+		client.delete("/a/3.txt");
+		assertEquals(2, client.listFiles(new ListRequest()).size());
+		try {
+			client.download("/a/3.txt", is -> fail("not expected"));
+			fail("exception expected");
+		} catch (OssException e) {
+			assertEquals(OssException.NOT_FOUND, e.getCode());
+		}
+	}
+
+	@Test
+	public void testDownloadToPath() throws Exception {
+		// one in the sealed segment and one in the active
+		client.submit(createTempFile(new String(new byte[200], StandardCharsets.UTF_8)), "/1.txt");
+		client.submit(createTempFile("2"), "/2.txt");
+		Path target = tempFolder.getRoot().toPath().resolve(UUID.randomUUID().toString());
+		assertEquals(200, client.download("/1.txt", target));
+		assertEquals(200, Files.size(target));
+		assertEquals(1, client.download("/2.txt", target));
+		assertEquals("2", new String(Files.readAllBytes(target), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testCopyMove() throws Exception {
+		client.submit(createTempFile("1"), "/a/1.txt");
+		client.copy("/a/1.txt", "/b/1.txt");
+		client.move("/a/1.txt", "/c/1.txt");
+		client.move("/c/1.txt", "/c/1.txt");
+		assertNames("/b/1.txt", "/c/1.txt");
+		assertEquals("1", download("/c/1.txt"));
+		client.stop();
+		restart();
+		assertNames("/b/1.txt", "/c/1.txt");
+		assertEquals("1", download("/b/1.txt"));
+	}
+
+	@Test
+	public void testRecoverFromSnapshot() throws Exception {
+		client.submit(createTempFile("1"), "/1.txt");
+		client.submit(createTempFile("2"), "/2.txt");
+		client.stop();
+		restart();
+		// written after the snapshot
+		client.delete("/1.txt");
+		client.submit(createTempFile("3"), "/3.txt");
+		// simulate crash: no snapshot on stop
+		client = null;
+		restart();
+		assertNames("/2.txt", "/3.txt");
+		assertEquals("3", download("/3.txt"));
+	}
+
+	@Test
+	public void testTruncatePartialRecord() throws Exception {
+		client.submit(createTempFile("1"), "/1.txt");
+		client.stop();
+		File segment = new File(basePath, "segment-00000000.dat");
+		long length = segment.length();
+		try (FileOutputStream fos = new FileOutputStream(segment, true)) {
+			fos.write(new byte[] { 1, 2, 3 });
+		}
+		Files.delete(new File(basePath, "index.snapshot").toPath());
+		restart();
+		assertEquals(length, segment.length());
+		client.submit(createTempFile("2"), "/2.txt");
+		assertEquals("2", download("/2.txt"));
+		assertNames("/1.txt", "/2.txt");
+	}
+
+	@Test
+	public void testCompaction() throws Exception {
+		for (int i = 0; i < 20; i++) {
+			client.submit(createTempFile(UUID.randomUUID().toString()), "/" + i + ".txt");
+		}
+		int segments = client.getSegments();
+		assertTrue(segments > 2);
+		for (int i = 0; i < 18; i++) {
+			client.delete("/" + i + ".txt");
+		}
+		// recreated after delete
+		client.submit(createTempFile("new"), "/0.txt");
+		assertTrue(client.compact() > 0);
+		assertTrue(client.getSegments() < segments);
+		assertEquals("new", download("/0.txt"));
+		assertNames("/0.txt", "/18.txt", "/19.txt");
+
+		// tombstones must survive compaction
+		client.stop();
+		Files.delete(new File(basePath, "index.snapshot").toPath());
+		client = null;
+		restart();
+		assertNames("/0.txt", "/18.txt", "/19.txt");
+		assertEquals("new", download("/0.txt"));
+	}
+
+	@Test
+	public void testTombstoneOnlySegment() throws Exception {
+		client.submit(createTempFile("a".repeat(180)), "/a");
+		client.submit(createTempFile("x"), "/x");
+		// tombstone goes into the next segment and hides "/x" in the first
+		client.delete("/x");
+		client.submit(createTempFile("c".repeat(200)), "/c");
+		assertEquals(3, client.getSegments());
+		assertEquals(0, client.compact());
+
+		client.stop();
+		Files.delete(new File(basePath, "index.snapshot").toPath());
+		client = null;
+		restart();
+		assertNames("/a", "/c");
+	}
+
+	@Test(timeout = 10_000)
+	public void testInterruptedRead() throws Exception {
+		client.submit(createTempFile("1"), "/1.txt");
+		Thread.currentThread().interrupt();
+		try {
+			download("/1.txt");
+			fail("exception expected");
+		} catch (OssException e) {
+			assertTrue(Thread.interrupted());
+		}
+		// active segment is still usable
+		client.submit(createTempFile("2"), "/2.txt");
+		assertEquals("1", download("/1.txt"));
+		assertEquals("2", download("/2.txt"));
+	}
+
+	@Test(expected = OssException.class)
+	public void testObjectTooBig() throws Exception {
+		client.submit(createTempFile(new String(new byte[1024], StandardCharsets.UTF_8)), "/1.txt");
+	}
+
+	@Before
+	public void start() throws Exception {
+		basePath = tempFolder.newFolder();
+		restart();
+	}
+
+	@After
+	public void stop() {
+		if (client != null) {
+			client.stop();
+		}
+	}
+
+	private void restart() throws OssException {
+		client = new PackedOssClient();
+		client.setBasePath(basePath.getAbsolutePath());
+		client.setSegmentSize(256);
+		client.setCompactIntervalMillis(0);
+		client.start();
+	}
+
+	private void assertNames(String... expected) throws OssException {
+		List<String> actual = new ArrayList<>();
+		for (FileEntry cur : client.listFiles(new ListRequest())) {
+			actual.add(cur.getName());
+		}
+		assertEquals(List.of(expected), actual);
+	}
+
+	private String download(String path) throws OssException {
+		List<String> result = new ArrayList<>();
+		client.download(path, is -> {
+			try {
+				result.add(new String(is.readAllBytes(), StandardCharsets.UTF_8));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+		return result.get(0);
+	}
+
+	private File createTempFile(String data) throws IOException {
+		File tempFile = new File(tempFolder.getRoot(), UUID.randomUUID().toString());
+		Files.write(tempFile.toPath(), data.getBytes(StandardCharsets.UTF_8));
+		return tempFile;
+	}
+}
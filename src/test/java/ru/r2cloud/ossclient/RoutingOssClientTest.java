@@ -0,0 +1,137 @@
+package ru.r2cloud.ossclient;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RoutingOssClientTest {
+
+	private List<DelegatingOssClient> endpoints;
+	private RoutingOssClient client;
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testWriteQuorum() throws Exception {
+		endpoints.get(0).setFailing(true);
+		String data = UUID.randomUUID().toString();
+		client.submit(createTempFile(data), "/1.txt");
+		assertEquals(data, download("/1.txt"));
+	}
+
+	@Test(expected = OssException.class)
+	public void testWriteQuorumNotReached() throws Exception {
+		endpoints.get(0).setFailing(true);
+		endpoints.get(1).setFailing(true);
+		client.submit(createTempFile(UUID.randomUUID().toString()), "/1.txt");
+	}
+
+	@Test
+	public void testHedgedRead() throws Exception {
+		String data = UUID.randomUUID().toString();
+		File file = createTempFile(data);
+		// keep latency stats empty, so endpoint 0 is the primary
+		for (DelegatingOssClient cur : endpoints) {
+			cur.submit(file, "/1.txt");
+		}
+		client.setHedgedReads(true);
+		client.setHedgeDelayMillis(50);
+		for (DelegatingOssClient cur : endpoints) {
+			cur.setDelayMillis(2000);
+		}
+		endpoints.get(1).setDelayMillis(0);
+		assertEquals(data, download("/1.txt"));
+		assertEquals(1, client.getHedgedRequests());
+		assertEquals(1, client.listFiles(new ListRequest()).size());
+	}
+
+	@Test
+	public void testFailover() throws Exception {
+		String data = UUID.randomUUID().toString();
+		client.submit(createTempFile(data), "/1.txt");
+		endpoints.get(0).setFailing(true);
+		endpoints.get(1).setFailing(true);
+		assertEquals(data, download("/1.txt"));
+		assertEquals(1, client.listFiles(new ListRequest()).size());
+		// failed endpoints are the last
+		assertEquals(2, client.route().get(0).intValue());
+	}
+
+	@Test
+	public void testEndpointWithoutSamples() throws Exception {
+		client.setFailureThreshold(3);
+		endpoints.get(0).setDelayMillis(20);
+		endpoints.get(1).setDelayMillis(60);
+		// healthy, but has no latency samples
+		endpoints.get(2).setFailing(true);
+		client.submit(createTempFile(UUID.randomUUID().toString()), "/1.txt");
+		List<Integer> route = client.route();
+		assertEquals(0, route.get(0).intValue());
+		assertEquals(2, route.get(1).intValue());
+		assertEquals(1, route.get(2).intValue());
+	}
+
+	@Test(expected = OssException.class)
+	public void testDeleteUnknown() throws Exception {
+		client.delete("/" + UUID.randomUUID().toString());
+	}
+
+	@Before
+	public void start() throws Exception {
+		endpoints = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			FileOssClient fileClient = new FileOssClient();
+			fileClient.setBasePath(tempFolder.newFolder().getAbsolutePath());
+			fileClient.start();
+			endpoints.add(new DelegatingOssClient(fileClient));
+		}
+		client = new RoutingOssClient();
+		client.setEndpoints(new ArrayList<>(endpoints));
+		client.setFailureThreshold(1);
+		client.setTempDirectory(tempFolder.getRoot().getAbsolutePath());
+		client.start();
+	}
+
+	@After
+	public void stop() {
+		if (client != null) {
+			client.stop();
+		}
+	}
+
+	private String download(String path) throws OssException {
+		List<String> result = new ArrayList<>();
+		client.download(path, is -> {
+			try (BufferedReader r = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+				result.add(r.readLine());
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+		return result.get(0);
+	}
+
+	private File createTempFile(String data) throws IOException {
+		File tempFile = new File(tempFolder.getRoot(), UUID.randomUUID().toString());
+		try (FileWriter fw = new FileWriter(tempFile)) {
+			fw.append(data);
+		}
+		return tempFile;
+	}
+}
@@ -0,0 +1,79 @@
+package ru.r2cloud.ossclient;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.UUID;
+
+/**
+ * Measures heap allocated by the calling thread per {@link SelectelOssClient}
+ * submit and delete against {@link SwiftEmulator}. Emulator runs in other
+ * threads and is not counted. Not a unit test. Run manually:
+ *
+ * <pre>
+ * java -cp ... ru.r2cloud.ossclient.SelectelOssClientBenchmark &lt;dir&gt; [operations]
+ * </pre>
+ */
+public class SelectelOssClientBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("usage: SelectelOssClientBenchmark <dir> [operations]");
+			System.exit(1);
+			return;
+		}
+		File dir = new File(args[0]);
+		int operations = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+		Files.createDirectories(dir.toPath());
+		File payload = new File(dir, "payload.bin");
+		Files.write(payload.toPath(), new byte[128]);
+
+		SwiftEmulator emulator = new SwiftEmulator("localhost", new File(dir, "emulator"));
+		emulator.start();
+		SelectelOssClient client = new SelectelOssClient();
+		client.setAuthUrl(emulator.getAuthUrl());
+		client.setContainerName("container");
+		client.setKey(UUID.randomUUID().toString());
+		client.setUser(UUID.randomUUID().toString());
+		client.setTimeout(10_000);
+		client.start();
+		try {
+			// warm up jit and connection pool
+			run(client, payload, operations / 4, false);
+			run(client, payload, operations, true);
+		} finally {
+			client.stop();
+			emulator.stop();
+		}
+	}
+
+	private static void run(SelectelOssClient client, File payload, int operations, boolean print) throws Exception {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		long allocated = threads.getThreadAllocatedBytes(threadId);
+		long start = System.nanoTime();
+		for (int i = 0; i < operations; i++) {
+			client.submit(payload, path(i));
+		}
+		report("submit", operations, start, threads.getThreadAllocatedBytes(threadId) - allocated, print);
+
+		allocated = threads.getThreadAllocatedBytes(threadId);
+		start = System.nanoTime();
+		for (int i = 0; i < operations; i++) {
+			client.delete(path(i));
+		}
+		report("delete", operations, start, threads.getThreadAllocatedBytes(threadId) - allocated, print);
+	}
+
+	private static void report(String operation, int count, long startNanos, long allocatedBytes, boolean print) {
+		if (!print) {
+			return;
+		}
+		long tookMillis = Math.max(1, (System.nanoTime() - startNanos) / 1_000_000);
+		System.out.printf("%-8s %7d ops in %6d ms %8.0f ops/s %8d bytes/op%n", operation, count, tookMillis, count * 1000.0 / tookMillis, allocatedBytes / count);
+	}
+
+	private static String path(int index) {
+		return String.format("/%03d/%08d.bin", index % 100, index);
+	}
+}
@@ -0,0 +1,576 @@
+package ru.r2cloud.ossclient;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
+
+public class SelectelOssClientEmulatorTest {
+
+	private SwiftEmulator emulator;
+	private SelectelOssClient client;
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testSubmitDownloadList() throws Exception {
+		String data = UUID.randomUUID().toString();
+		File file = createTempFile(data);
+		client.submit(file, "/a/1.txt");
+		client.submit(file, "/a/2.txt");
+		client.submit(file, "/b/3.txt");
+		assertEquals(data, download("/a/1.txt"));
+
+		ListRequest req = new ListRequest();
+		List<FileEntry> result = client.listFiles(req);
+		assertEquals(3, result.size());
+		assertEquals("a/1.txt", result.get(0).getName());
+		assertEquals(data.length(), result.get(0).getBytes());
+
+		req.setPrefix("a/");
+		req.setMarker("a/1.txt");
+		result = client.listFiles(req);
+		assertEquals(1, result.size());
+		assertEquals("a/2.txt", result.get(0).getName());
+
+		req = new ListRequest();
+		req.setDelimiter('/');
+		result = client.listFiles(req);
+		// subdirs "a/" and "b/" don't have names
+		assertEquals(2, result.size());
+		assertNull(result.get(0).getName());
+
+		client.delete("/a/1.txt");
+		assertEquals(2, client.listFiles(new ListRequest()).size());
+	}
+
+	@Test
+	public void testTokenExpiration() throws Exception {
+		client.submit(createTempFile(UUID.randomUUID().toString()), "/1.txt");
+		emulator.expireTokens();
+		client.delete("/1.txt");
+		assertEquals(1, emulator.getExpiredTokens());
+	}
+
+	@Test
+	public void testInjectedErrors() throws Exception {
+		emulator.setErrorRate(0.5);
+		File file = createTempFile(UUID.randomUUID().toString());
+		for (int i = 0; i < 10; i++) {
+			client.submit(file, "/" + i + ".txt");
+		}
+		assertTrue(emulator.getInjectedErrors() > 0);
+		assertEquals(10, emulator.getStorage("container").listFiles(new ListRequest()).size());
+	}
+
+	@Test
+	public void testRetriesExhausted() throws Exception {
+		emulator.setErrorRate(1.0);
+		long start = System.currentTimeMillis();
+		try {
+			client.submit(createTempFile(UUID.randomUUID().toString()), "/1.txt");
+			fail("exception expected");
+		} catch (OssException e) {
+			// 10 retries with 10ms pause
+			assertTrue(System.currentTimeMillis() - start >= 100);
+		}
+	}
+
+	@Test
+	public void testInterrupted() throws Exception {
+		File file = createTempFile(UUID.randomUUID().toString());
+		Thread.currentThread().interrupt();
+		try {
+			client.submit(file, "/1.txt");
+			fail("exception expected");
+		} catch (OssException e) {
+			assertTrue(Thread.interrupted());
+		}
+		assertEquals(0, emulator.getStorage("container").listFiles(new ListRequest()).size());
+	}
+
+	@Test
+	public void testThrottledTransfer() throws Exception {
+		BandwidthLimiter limiter = new BandwidthLimiter();
+		limiter.setBytesPerSecond(100_000);
+		client.setBandwidthLimiter(limiter);
+		File file = new File(tempFolder.getRoot(), UUID.randomUUID().toString());
+		try (FileOutputStream fos = new FileOutputStream(file)) {
+			fos.write(new byte[30_000]);
+		}
+		long start = System.nanoTime();
+		client.submit(file, "/1.bin");
+		long[] downloaded = new long[1];
+		client.download("/1.bin", is -> {
+			try {
+				downloaded[0] = is.transferTo(OutputStream.nullOutputStream());
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+		long tookMillis = (System.nanoTime() - start) / 1_000_000;
+		assertEquals(30_000, downloaded[0]);
+		// 10_000 burst, then 50_000 at 100_000 per second
+		assertTrue("took: " + tookMillis, tookMillis >= 400);
+	}
+
+	@Test
+	public void testBulkDelete() throws Exception {
+		File file = createTempFile(UUID.randomUUID().toString());
+		client.submit(file, "/a/1.txt");
+		client.submit(file, "/a/2.txt");
+
+		HttpURLConnection auth = (HttpURLConnection) new URL(emulator.getAuthUrl()).openConnection();
+		auth.setRequestProperty("X-Auth-User", "user");
+		auth.setRequestProperty("X-Auth-Key", "key");
+		assertEquals(204, auth.getResponseCode());
+
+		HttpURLConnection con = (HttpURLConnection) new URL(auth.getHeaderField("X-Storage-Url") + "/?bulk-delete").openConnection();
+		con.setRequestMethod("POST");
+		con.setDoOutput(true);
+		con.setRequestProperty("X-Auth-Token", auth.getHeaderField("X-Auth-Token"));
+		try (OutputStream os = con.getOutputStream()) {
+			os.write("/container/a/1.txt\n/container/a/2.txt\n/container/a/3.txt\n".getBytes(StandardCharsets.UTF_8));
+		}
+		assertEquals(200, con.getResponseCode());
+		JsonObject result;
+		try (InputStreamReader r = new InputStreamReader(con.getInputStream(), StandardCharsets.UTF_8)) {
+			result = Json.parse(r).asObject();
+		}
+		assertEquals(2, result.getInt("Number Deleted", 0));
+		assertEquals(1, result.getInt("Number Not Found", 0));
+		assertEquals(0, client.listFiles(new ListRequest()).size());
+	}
+
+	@Test
+	public void testCopyMove() throws Exception {
+		String data = UUID.randomUUID().toString();
+		client.submit(createTempFile(data), "/a/1.txt");
+		client.copy("/a/1.txt", "/b/1.txt");
+		client.move("/a/1.txt", "/c/1.txt");
+		client.move("/c/1.txt", "/c/1.txt");
+		assertEquals(data, download("/b/1.txt"));
+		assertEquals(data, download("/c/1.txt"));
+		assertEquals(2, emulator.getCopies());
+		assertEquals(2, client.listFiles(new ListRequest()).size());
+		try {
+			client.copy("/a/1.txt", "/d/1.txt");
+			fail("exception expected");
+		} catch (OssException e) {
+			assertEquals(OssException.NOT_FOUND, e.getCode());
+		}
+	}
+
+	@Test
+	public void testBulkMove() throws Exception {
+		File file = createTempFile(UUID.randomUUID().toString());
+		Map<String, String> moves = new HashMap<>();
+		for (int i = 0; i < 50; i++) {
+			client.submit(file, "/a/" + i + ".txt");
+			moves.put("/a/" + i + ".txt", "/b/" + i + ".txt");
+		}
+		moves.put("/a/unknown.txt", "/b/unknown.txt");
+		Map<String, OssException> failed = client.moveAll(moves);
+		assertEquals(1, failed.size());
+		assertEquals(OssException.NOT_FOUND, failed.get("/a/unknown.txt").getCode());
+		ListRequest req = new ListRequest();
+		req.setPrefix("b/");
+		assertEquals(50, client.listFiles(req).size());
+		req.setPrefix("a/");
+		assertEquals(0, client.listFiles(req).size());
+	}
+
+	@Test
+	public void testDownloadToPath() throws Exception {
+		byte[] data = randomBytes(300_000);
+		client.submit(createTempFile(data), "/1.bin");
+		Path target = tempFolder.getRoot().toPath().resolve(UUID.randomUUID().toString());
+		assertEquals(data.length, client.download("/1.bin", target));
+		assertArrayEquals(data, Files.readAllBytes(target));
+		try {
+			client.download("/unknown", target);
+			fail("exception expected");
+		} catch (OssException e) {
+			assertEquals(OssException.NOT_FOUND, e.getCode());
+		}
+		assertArrayEquals(data, Files.readAllBytes(target));
+	}
+
+	@Test
+	public void testResumeDownload() throws Exception {
+		byte[] data = randomBytes(100_000);
+		File file = createTempFile(data);
+		client.submit(file, "/1.bin");
+		emulator.setMaxBytesPerResponse(30_000);
+		File target = new File(tempFolder.getRoot(), UUID.randomUUID().toString());
+		assertEquals(data.length, client.downloadResumable("/1.bin", target));
+		assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+		assertFalse(new File(target.getAbsolutePath() + ".part").exists());
+	}
+
+	@Test
+	public void testResumeDownloadOfChangedObject() throws Exception {
+		File target = new File(tempFolder.getRoot(), UUID.randomUUID().toString());
+		// partially downloaded previous version
+		Files.write(new File(target.getAbsolutePath() + ".part").toPath(), randomBytes(10));
+		Files.write(new File(target.getAbsolutePath() + ".part.etag").toPath(), "old".getBytes(StandardCharsets.UTF_8));
+		byte[] data = randomBytes(1000);
+		client.submit(createTempFile(data), "/1.bin");
+		client.downloadResumable("/1.bin", target);
+		assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+	}
+
+	@Test
+	public void testResumeSegmentedUpload() throws Exception {
+		byte[] data = randomBytes(10_500);
+		File file = createTempFile(data);
+		File checkpoints = tempFolder.newFolder();
+		client.setCheckpointDirectory(checkpoints.getAbsolutePath());
+		client.setSegmentSize(1000);
+		client.setRetries(1);
+		emulator.setFailPutsAfter(4);
+		try {
+			client.submit(file, "/1.bin");
+			fail("exception expected");
+		} catch (OssException e) {
+			// expected
+		}
+		assertEquals(1, checkpoints.list().length);
+
+		emulator.setFailPutsAfter(-1);
+		client.submit(file, "/1.bin");
+		// 11 segments + manifest
+		assertEquals(12, emulator.getPuts());
+		assertEquals(0, checkpoints.list().length);
+		assertFalse(new File(file.getAbsolutePath() + ".upload").exists());
+
+		File target = new File(tempFolder.getRoot(), UUID.randomUUID().toString());
+		client.downloadResumable("/1.bin", target);
+		assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+	}
+
+	@Test
+	public void testSegmentsContainer() throws Exception {
+		client.setSegmentSize(1000);
+		client.submit(createTempFile(randomBytes(2500)), "/1.bin");
+		assertEquals(1, client.listFiles(new ListRequest()).size());
+		assertEquals(3, emulator.getStorage("container_segments").listFiles(new ListRequest()).size());
+
+		// new version replaces segments of the previous one
+		byte[] data = randomBytes(1500);
+		File file = createTempFile(data);
+		file.setLastModified(System.currentTimeMillis() - 10_000);
+		client.submit(file, "/1.bin");
+		assertEquals(2, emulator.getStorage("container_segments").listFiles(new ListRequest()).size());
+		File target = new File(tempFolder.getRoot(), UUID.randomUUID().toString());
+		client.downloadResumable("/1.bin", target);
+		assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+
+		client.submit(createTempFile("1"), "/1.bin");
+		assertEquals(0, emulator.getStorage("container_segments").listFiles(new ListRequest()).size());
+		client.submit(createTempFile(randomBytes(2500)), "/1.bin");
+		client.delete("/1.bin");
+		assertEquals(0, emulator.getStorage("container_segments").listFiles(new ListRequest()).size());
+		assertEquals(0, client.listFiles(new ListRequest()).size());
+	}
+
+	@Test
+	public void testCopyOverSegmented() throws Exception {
+		client.setSegmentSize(1000);
+		byte[] data = randomBytes(2500);
+		client.submit(createTempFile(data), "/1.bin");
+		client.submit(createTempFile(randomBytes(2500)), "/2.bin");
+		client.submit(createTempFile("1"), "/3.bin");
+		assertEquals(6, emulator.getStorage("container_segments").listFiles(new ListRequest()).size());
+
+		// copy of the large object is a regular object
+		client.copy("/1.bin", "/2.bin");
+		assertEquals(3, emulator.getStorage("container_segments").listFiles(new ListRequest()).size());
+		client.move("/3.bin", "/1.bin");
+		assertEquals(0, emulator.getStorage("container_segments").listFiles(new ListRequest()).size());
+
+		File target = new File(tempFolder.getRoot(), UUID.randomUUID().toString());
+		client.downloadResumable("/2.bin", target);
+		assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+		assertEquals(2, client.listFiles(new ListRequest()).size());
+	}
+
+	@Test
+	public void testMetadata() throws Exception {
+		Map<String, String> metadata = new HashMap<>();
+		metadata.put("Station", "ABC");
+		client.submit(createTempFile("1"), "/1.txt", "text/plain", metadata);
+		FileEntry entry = client.stat("/1.txt");
+		assertEquals(1, entry.getBytes());
+		assertEquals("text/plain", entry.getContentType());
+		assertEquals("ABC", entry.getMetadata().get("station"));
+
+		List<FileEntry> received = new ArrayList<>();
+		client.download("/1.txt", new Callback() {
+
+			@Override
+			public void onMetadata(FileEntry cur) {
+				received.add(cur);
+			}
+
+			@Override
+			public void onData(InputStream is) {
+				// do nothing
+			}
+		});
+		assertEquals("ABC", received.get(0).getMetadata().get("station"));
+		assertEquals("text/plain", client.listFiles(new ListRequest()).get(0).getContentType());
+
+		// server-side copy keeps metadata
+		client.copy("/1.txt", "/2.txt");
+		assertEquals("ABC", client.stat("/2.txt").getMetadata().get("station"));
+		try {
+			client.stat("/3.txt");
+			fail("exception expected");
+		} catch (OssException e) {
+			assertEquals(OssException.NOT_FOUND, e.getCode());
+		}
+	}
+
+	@Test
+	public void testEncodeNames() throws Exception {
+		String path = "/a b/c+d&prefix=x%20#?.txt";
+		client.submit(createTempFile("1"), path);
+		assertEquals("1", download(path));
+		ListRequest req = new ListRequest();
+		req.setPrefix("a b/c+d&");
+		List<FileEntry> result = client.listFiles(req);
+		assertEquals(1, result.size());
+		assertEquals(path.substring(1), result.get(0).getName());
+
+		client.copy(path, "/copy/#1.txt");
+		assertEquals("1", download("/copy/#1.txt"));
+
+		client.setSegmentSize(1000);
+		byte[] data = randomBytes(2500);
+		client.submit(createTempFile(data), path);
+		File target = new File(tempFolder.getRoot(), UUID.randomUUID().toString());
+		client.downloadResumable(path, target);
+		assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+
+		client.delete(path);
+		assertEquals(0, client.listFiles(req).size());
+	}
+
+	@Test
+	public void testExpiry() throws Exception {
+		long now = System.currentTimeMillis() / 1000;
+		client.submit(createTempFile("1"), "/1.txt", Duration.ofHours(1));
+		long deleteAt = emulator.getDeleteAt("container/1.txt");
+		assertTrue(deleteAt >= now + 3600 && deleteAt <= now + 3601);
+		assertEquals("1", download("/1.txt"));
+
+		client.submit(createTempFile("2"), "/2.txt", Instant.ofEpochSecond(now - 1));
+		assertEquals(Long.valueOf(now - 1), emulator.getDeleteAt("container/2.txt"));
+		try {
+			client.stat("/2.txt");
+			fail("exception expected");
+		} catch (OssException e) {
+			assertEquals(OssException.NOT_FOUND, e.getCode());
+		}
+		client.submit(createTempFile("2"), "/2.txt");
+		assertNull(emulator.getDeleteAt("container/2.txt"));
+		assertEquals("2", download("/2.txt"));
+
+		client.submit(createTempFile("3"), "/3.txt", "text/plain", Collections.singletonMap("station", "ABC"), Instant.ofEpochSecond(now + 60));
+		assertEquals(Long.valueOf(now + 60), emulator.getDeleteAt("container/3.txt"));
+		FileEntry entry = client.stat("/3.txt");
+		assertEquals("text/plain", entry.getContentType());
+		assertEquals("ABC", entry.getMetadata().get("station"));
+	}
+
+	@Test
+	public void testTracing() throws Exception {
+		RecordingTracer tracer = new RecordingTracer();
+		client.stop();
+		client.setTracer(tracer);
+		client.start();
+
+		emulator.setLatencyMillis(50);
+		client.submit(createTempFile("1"), "/1.txt");
+		assertEquals(2, tracer.spans.size());
+		RecordingSpan attempt = tracer.spans.get(0);
+		RecordingSpan operation = tracer.spans.get(1);
+		assertEquals("oss.submit", operation.name);
+		assertEquals("/1.txt", operation.attributes.get("oss.path"));
+		assertEquals(1L, operation.attributes.get("oss.attempts"));
+		assertEquals("oss.submit.attempt", attempt.name);
+		assertEquals(operation, attempt.parent);
+		assertEquals(201L, attempt.attributes.get("http.response.status_code"));
+		assertTrue((Long) attempt.attributes.get("oss.phase.ttfb_us") >= 50_000);
+		assertTrue(attempt.attributes.containsKey("oss.phase.auth_us"));
+		assertTrue(attempt.attributes.containsKey("oss.phase.connect_us"));
+		assertTrue(attempt.ended);
+		assertTrue(operation.ended);
+
+		tracer.spans.clear();
+		emulator.setLatencyMillis(0);
+		emulator.setErrorRate(1.0);
+		try {
+			download("/1.txt");
+			fail("exception expected");
+		} catch (OssException e) {
+			assertEquals(2, tracer.spans.size());
+			assertEquals("oss.download", tracer.spans.get(1).name);
+			assertEquals(503L, tracer.spans.get(0).attributes.get("http.response.status_code"));
+			assertEquals(e, tracer.spans.get(1).error);
+		}
+
+		tracer.spans.clear();
+		try {
+			client.submit(createTempFile("2"), "/2.txt");
+			fail("exception expected");
+		} catch (OssException e) {
+			RecordingSpan last = tracer.spans.get(tracer.spans.size() - 1);
+			assertEquals("oss.submit", last.name);
+			assertEquals(11L, last.attributes.get("oss.attempts"));
+			assertEquals(12, tracer.spans.size());
+		}
+	}
+
+	@Before
+	public void start() throws Exception {
+		emulator = new SwiftEmulator("localhost", tempFolder.newFolder());
+		emulator.start();
+
+		client = new SelectelOssClient();
+		client.setAuthUrl(emulator.getAuthUrl());
+		client.setContainerName("container");
+		client.setKey(UUID.randomUUID().toString());
+		client.setUser(UUID.randomUUID().toString());
+		client.setRetries(10);
+		client.setRetryTimeoutMillis(10L);
+		client.setTimeout(10_000);
+		client.start();
+	}
+
+	@After
+	public void stop() {
+		if (client != null) {
+			client.stop();
+		}
+		if (emulator != null) {
+			emulator.stop();
+		}
+	}
+
+	private String download(String path) throws OssException {
+		List<String> result = new ArrayList<>();
+		client.download(path, is -> {
+			try (BufferedReader r = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+				result.add(r.readLine());
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+		return result.get(0);
+	}
+
+	private File createTempFile(byte[] data) throws IOException {
+		File tempFile = new File(tempFolder.getRoot(), UUID.randomUUID().toString());
+		Files.write(tempFile.toPath(), data);
+		return tempFile;
+	}
+
+	private static byte[] randomBytes(int length) {
+		byte[] result = new byte[length];
+		new Random(length).nextBytes(result);
+		return result;
+	}
+
+	private static class RecordingTracer implements OssTracer {
+
+		private final List<RecordingSpan> spans = Collections.synchronizedList(new ArrayList<>());
+
+		@Override
+		public OssSpan startSpan(String name, OssSpan parent) {
+			return new RecordingSpan(this, name, parent);
+		}
+	}
+
+	private static class RecordingSpan implements OssSpan {
+
+		private final RecordingTracer tracer;
+		private final String name;
+		private final OssSpan parent;
+		private final Map<String, Object> attributes = new HashMap<>();
+		private Throwable error;
+		private boolean ended;
+
+		RecordingSpan(RecordingTracer tracer, String name, OssSpan parent) {
+			this.tracer = tracer;
+			this.name = name;
+			this.parent = parent;
+		}
+
+		@Override
+		public void setAttribute(String key, String value) {
+			attributes.put(key, value);
+		}
+
+		@Override
+		public void setAttribute(String key, long value) {
+			attributes.put(key, value);
+		}
+
+		@Override
+		public void recordException(Throwable e) {
+			error = e;
+		}
+
+		@Override
+		public void end() {
+			ended = true;
+			tracer.spans.add(this);
+		}
+	}
+
+	private File createTempFile(String data) throws IOException {
+		File tempFile = new File(tempFolder.getRoot(), UUID.randomUUID().toString());
+		try (FileWriter fw = new FileWriter(tempFile)) {
+			fw.append(data);
+		}
+		return tempFile;
+	}
+}
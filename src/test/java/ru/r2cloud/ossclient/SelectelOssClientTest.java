@@ -1,12 +1,21 @@
 package ru.r2cloud.ossclient;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.After;
 import org.junit.Before;
@@ -59,6 +68,56 @@ public class SelectelOssClientTest {
 		client.delete(path);
 	}
 
+	@Test
+	public void testCoalescedDownload() throws Exception {
+		String path = "/testFile";
+		byte[] data = new byte[3000];
+		new Random().nextBytes(data);
+		int threads = 5;
+		DownloadHandler handler = new DownloadHandler(data);
+		server.createContext(BASEDATAPATH + "/" + CONTAINER_NAME + path, exchange -> {
+			// wait until every other thread joined the in-flight request
+			long deadline = System.currentTimeMillis() + 10_000;
+			while (client.getCoalescedRequests() < threads - 1 && System.currentTimeMillis() < deadline) {
+				try {
+					Thread.sleep(10);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			handler.handle(exchange);
+		});
+		client.setCoalesceRequests(true);
+		// force spill to disk
+		client.setCoalesceMemoryThreshold(1024);
+		client.setTempDirectory(tempFolder.getRoot().getAbsolutePath());
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<byte[]>> results = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			results.add(executor.submit(() -> {
+				ByteArrayOutputStream baos = new ByteArrayOutputStream();
+				client.download(path, is -> {
+					try {
+						is.transferTo(baos);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+				return baos.toByteArray();
+			}));
+		}
+		for (Future<byte[]> cur : results) {
+			assertArrayEquals(data, cur.get());
+		}
+		executor.shutdown();
+		assertEquals(1, handler.getRequests());
+		assertEquals(threads - 1, client.getCoalescedRequests());
+		// temp files are removed
+		assertEquals(0, tempFolder.getRoot().listFiles((dir, name) -> name.endsWith(".tmp")).length);
+	}
+
 	@Test(expected = OssException.class)
 	public void testInvalidAuth() throws Exception {
 		setupContext(AUTH_ENDPOINT, new AuthHttpHandler(HOST, PORT, BASEDATAPATH, 401));
@@ -100,6 +159,9 @@ public class SelectelOssClientTest {
 
 	@After
 	public void stop() {
+		if (client != null) {
+			client.stop();
+		}
 		if (server != null) {
 			server.stop(0);
 		}
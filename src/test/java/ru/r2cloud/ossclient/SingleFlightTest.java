@@ -0,0 +1,96 @@
+package ru.r2cloud.ossclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+	@Test(timeout = 10_000)
+	public void testLoaderError() throws Exception {
+		SingleFlight<String> flight = new SingleFlight<>((value, participants) -> {
+			// do nothing
+		}, value -> {
+			// do nothing
+		});
+		CountDownLatch loading = new CountDownLatch(1);
+		CountDownLatch joined = new CountDownLatch(1);
+		Thread leader = new Thread(() -> {
+			try {
+				flight.execute("1", () -> {
+					loading.countDown();
+					try {
+						joined.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					throw new OutOfMemoryError("test");
+				});
+			} catch (OutOfMemoryError | OssException e) {
+				// expected
+			}
+		});
+		leader.start();
+		loading.await();
+		AtomicInteger failed = new AtomicInteger();
+		Thread waiter = new Thread(() -> {
+			try {
+				flight.execute("1", () -> "2");
+			} catch (OssException e) {
+				failed.incrementAndGet();
+			}
+		});
+		waiter.start();
+		while (flight.getCoalesced() == 0) {
+			Thread.sleep(1);
+		}
+		joined.countDown();
+		waiter.join();
+		leader.join();
+		assertEquals(1, failed.get());
+		// the key is free again
+		assertEquals("3", flight.execute("1", () -> "3"));
+	}
+
+	@Test(timeout = 10_000)
+	public void testInterruptedWaiterReleasesShare() throws Exception {
+		AtomicInteger references = new AtomicInteger();
+		SingleFlight<String> flight = new SingleFlight<>((value, participants) -> references.addAndGet(participants), value -> references.decrementAndGet());
+		CountDownLatch loading = new CountDownLatch(1);
+		CountDownLatch interrupted = new CountDownLatch(1);
+		Thread waiter = new Thread(() -> {
+			try {
+				loading.await();
+				flight.execute("1", () -> "2");
+				fail("exception expected");
+			} catch (OssException e) {
+				interrupted.countDown();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		waiter.start();
+		String result = flight.execute("1", () -> {
+			loading.countDown();
+			while (flight.getCoalesced() == 0) {
+				Thread.onSpinWait();
+			}
+			waiter.interrupt();
+			try {
+				assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return "1";
+		});
+		assertEquals("1", result);
+		// leader's share only
+		assertEquals(1, references.get());
+	}
+}
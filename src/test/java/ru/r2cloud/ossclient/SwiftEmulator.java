@@ -0,0 +1,644 @@
+package ru.r2cloud.ossclient;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process Swift-compatible server backed by {@link FileOssClient}. Supports
+ * auth, multiple containers, PUT/GET/DELETE/HEAD, json listing, bulk-delete,
+ * Range requests, server-side copy and dynamic large objects. Latency, error rate
+ * and token expiration can be injected. Random decisions are seeded, so runs
+ * are reproducible.
+ */
+public class SwiftEmulator {
+
+	public static final String AUTH_ENDPOINT = "/auth/v1.0";
+	private static final String STORAGE_PATH = "/v1/account";
+	private static final String METADATA_PREFIX = "X-Object-Meta-";
+
+	private final String host;
+	private final File dataDir;
+	private final File tempDir;
+	private final Map<String, FileOssClient> containers = new ConcurrentHashMap<>();
+
+	private final Map<String, Long> tokens = new ConcurrentHashMap<>();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong injectedErrors = new AtomicLong();
+	private final AtomicLong expiredTokens = new AtomicLong();
+	private final AtomicLong puts = new AtomicLong();
+	private final AtomicLong copies = new AtomicLong();
+	// "container/object" to decoded "container/prefix"
+	private final Map<String, String> manifests = new ConcurrentHashMap<>();
+	// "container/object" to X-Delete-At
+	private final Map<String, Long> expirations = new ConcurrentHashMap<>();
+
+	private volatile long latencyMillis;
+	private volatile double errorRate;
+	private volatile long tokenTtlMillis = 3600_000;
+	private volatile long maxBytesPerResponse;
+	private volatile long failPutsAfter = -1;
+	private Random random = new Random(0);
+	private int threads = 16;
+
+	private HttpServer server;
+	private ExecutorService executor;
+
+	public SwiftEmulator(String host, File basePath) {
+		this.host = host;
+		this.tempDir = new File(basePath, "tmp");
+		this.dataDir = new File(basePath, "data");
+	}
+
+	public void start() throws IOException {
+		if (!tempDir.exists() && !tempDir.mkdirs()) {
+			throw new IOException("unable to create: " + tempDir.getAbsolutePath());
+		}
+		server = HttpServer.create(new InetSocketAddress(host, 0), 0);
+		executor = Executors.newFixedThreadPool(threads);
+		server.setExecutor(executor);
+		server.createContext(AUTH_ENDPOINT, this::handleAuth);
+		server.createContext(STORAGE_PATH, this::handleStorage);
+		server.start();
+	}
+
+	public void stop() {
+		if (server != null) {
+			server.stop(0);
+		}
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	public String getAuthUrl() {
+		return "http://" + host + ":" + server.getAddress().getPort() + AUTH_ENDPOINT;
+	}
+
+	/**
+	 * Expire all issued tokens. Next request with them will get 401
+	 */
+	public void expireTokens() {
+		tokens.replaceAll((k, v) -> 0L);
+	}
+
+	private void handleAuth(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		if (exchange.getRequestHeaders().getFirst("X-Auth-User") == null || exchange.getRequestHeaders().getFirst("X-Auth-Key") == null) {
+			reply(exchange, 401);
+			return;
+		}
+		String token = UUID.randomUUID().toString();
+		tokens.put(token, System.currentTimeMillis() + tokenTtlMillis);
+		exchange.getResponseHeaders().add("X-Auth-Token", token);
+		exchange.getResponseHeaders().add("X-Storage-Url", "http://" + host + ":" + server.getAddress().getPort() + STORAGE_PATH);
+		exchange.getResponseHeaders().add("X-Expire-Auth-Token", String.valueOf(tokenTtlMillis / 1000));
+		reply(exchange, 204);
+	}
+
+	private void handleStorage(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		try {
+			if (latencyMillis > 0) {
+				try {
+					Thread.sleep(latencyMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					reply(exchange, 503);
+					return;
+				}
+			}
+			if (!isAuthorized(exchange)) {
+				reply(exchange, 401);
+				return;
+			}
+			if (shouldFail()) {
+				injectedErrors.incrementAndGet();
+				reply(exchange, 503);
+				return;
+			}
+			// path is already decoded
+			String path = exchange.getRequestURI().getPath().substring(STORAGE_PATH.length());
+			int containerEnd = path.indexOf('/', 1);
+			String container = containerEnd < 0 ? path.substring(1) : path.substring(1, containerEnd);
+			String object = containerEnd < 0 ? "" : path.substring(containerEnd + 1);
+			Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+			String method = exchange.getRequestMethod();
+			if (method.equals("POST") && query.containsKey("bulk-delete")) {
+				handleBulkDelete(exchange);
+			} else if (object.isEmpty() && method.equals("PUT")) {
+				boolean exists = containers.containsKey(container);
+				getStorage(container);
+				reply(exchange, exists ? 202 : 201);
+			} else if (object.isEmpty() && method.equals("GET")) {
+				handleList(exchange, container, query);
+			} else if (method.equals("PUT")) {
+				handlePut(exchange, container, object);
+			} else if (method.equals("GET") || method.equals("HEAD")) {
+				handleGet(exchange, container, object);
+			} else if (method.equals("DELETE")) {
+				handleDelete(exchange, container, object);
+			} else {
+				reply(exchange, 405);
+			}
+		} catch (Exception e) {
+			reply(exchange, 500);
+		}
+	}
+
+	private void handlePut(HttpExchange exchange, String container, String object) throws IOException, OssException {
+		if (failPutsAfter >= 0 && puts.get() >= failPutsAfter) {
+			injectedErrors.incrementAndGet();
+			reply(exchange, 503);
+			return;
+		}
+		FileOssClient storage = getStorage(container);
+		String key = container + "/" + object;
+		File temp = File.createTempFile("upload", ".tmp", tempDir);
+		try {
+			try (InputStream is = exchange.getRequestBody()) {
+				Files.copy(is, temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+			Map<String, String> metadata = new HashMap<>();
+			String copyFrom = exchange.getRequestHeaders().getFirst("X-Copy-From");
+			if (copyFrom != null) {
+				// url-encoded "/container/object"
+				copyFrom = URLDecoder.decode(copyFrom, StandardCharsets.UTF_8);
+				int sourceContainerEnd = copyFrom.indexOf('/', 1);
+				FileOssClient sourceStorage = getStorage(copyFrom.substring(1, sourceContainerEnd));
+				String source = copyFrom.substring(sourceContainerEnd + 1);
+				if (!sourceStorage.getFile("/" + source).isFile()) {
+					reply(exchange, 404);
+					return;
+				}
+				String sourceManifest = manifests.get(copyFrom.substring(1));
+				if (sourceManifest != null) {
+					File concatenated = concatenate(sourceManifest);
+					Files.move(concatenated.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				} else {
+					Files.copy(sourceStorage.getFile("/" + source).toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+				// copy keeps source metadata unless request overrides it
+				FileEntry sourceEntry = sourceStorage.stat("/" + source);
+				if (contentType == null) {
+					contentType = sourceEntry.getContentType();
+				}
+				if (sourceEntry.getMetadata() != null) {
+					metadata.putAll(sourceEntry.getMetadata());
+				}
+				copies.incrementAndGet();
+			}
+			for (Map.Entry<String, List<String>> cur : exchange.getRequestHeaders().entrySet()) {
+				if (cur.getKey().regionMatches(true, 0, METADATA_PREFIX, 0, METADATA_PREFIX.length())) {
+					metadata.put(cur.getKey().substring(METADATA_PREFIX.length()).toLowerCase(Locale.ROOT), cur.getValue().get(0));
+				}
+			}
+			storage.submit(temp, "/" + object, contentType, metadata);
+			String manifest = exchange.getRequestHeaders().getFirst("X-Object-Manifest");
+			if (manifest != null) {
+				// manifest is url-encoded "container/prefix"
+				manifests.put(key, URLDecoder.decode(manifest, StandardCharsets.UTF_8));
+			} else {
+				manifests.remove(key);
+			}
+			String deleteAt = exchange.getRequestHeaders().getFirst("X-Delete-At");
+			String deleteAfter = exchange.getRequestHeaders().getFirst("X-Delete-After");
+			if (deleteAt != null) {
+				expirations.put(key, Long.valueOf(deleteAt));
+			} else if (deleteAfter != null) {
+				expirations.put(key, System.currentTimeMillis() / 1000 + Long.parseLong(deleteAfter));
+			} else {
+				expirations.remove(key);
+			}
+			puts.incrementAndGet();
+			exchange.getResponseHeaders().add("ETag", md5(storage.getFile("/" + object)));
+			reply(exchange, 201);
+		} finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+	}
+
+	private void handleGet(HttpExchange exchange, String container, String object) throws IOException, OssException {
+		FileOssClient storage = getStorage(container);
+		String key = container + "/" + object;
+		File file = storage.getFile("/" + object);
+		// expired objects are not served even before they are deleted
+		Long deleteAt = expirations.get(key);
+		if (!file.isFile() || (deleteAt != null && deleteAt <= System.currentTimeMillis() / 1000)) {
+			reply(exchange, 404);
+			return;
+		}
+		FileEntry entry = storage.stat("/" + object);
+		if (entry.getContentType() != null) {
+			exchange.getResponseHeaders().add("Content-Type", entry.getContentType());
+		}
+		if (entry.getMetadata() != null) {
+			for (Map.Entry<String, String> cur : entry.getMetadata().entrySet()) {
+				exchange.getResponseHeaders().add(METADATA_PREFIX + cur.getKey(), cur.getValue());
+			}
+		}
+		String manifest = manifests.get(key);
+		File concatenated = null;
+		if (manifest != null) {
+			exchange.getResponseHeaders().add("X-Object-Manifest", manifest);
+			concatenated = concatenate(manifest);
+			file = concatenated;
+		}
+		try {
+			sendFile(exchange, file);
+		} finally {
+			if (concatenated != null) {
+				Files.deleteIfExists(concatenated.toPath());
+			}
+		}
+	}
+
+	private void sendFile(HttpExchange exchange, File file) throws IOException {
+		String etag = md5(file);
+		exchange.getResponseHeaders().add("ETag", etag);
+		exchange.getResponseHeaders().add("Last-Modified", formatHttpDate(file.lastModified()));
+		if (exchange.getRequestMethod().equals("HEAD")) {
+			exchange.getResponseHeaders().add("Content-Length", String.valueOf(file.length()));
+			reply(exchange, 200);
+			return;
+		}
+		long offset = 0;
+		long length = file.length();
+		int statusCode = 200;
+		String range = exchange.getRequestHeaders().getFirst("Range");
+		String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+		// only "bytes=N-" is supported
+		if (range != null && range.startsWith("bytes=") && range.endsWith("-") && (ifRange == null || ifRange.equals(etag))) {
+			offset = Long.parseLong(range.substring("bytes=".length(), range.length() - 1));
+			if (offset >= file.length()) {
+				exchange.getResponseHeaders().add("Content-Range", "bytes */" + file.length());
+				reply(exchange, 416);
+				return;
+			}
+			length = file.length() - offset;
+			statusCode = 206;
+			exchange.getResponseHeaders().add("Content-Range", "bytes " + offset + "-" + (file.length() - 1) + "/" + file.length());
+		}
+		exchange.sendResponseHeaders(statusCode, length == 0 ? -1 : length);
+		// simulate dropped connection: Content-Length is full, but body is
+		// truncated
+		long toSend = maxBytesPerResponse > 0 ? Math.min(length, maxBytesPerResponse) : length;
+		OutputStream os = exchange.getResponseBody();
+		try (FileInputStream is = new FileInputStream(file)) {
+			is.getChannel().position(offset);
+			byte[] buffer = new byte[8192];
+			long remaining = toSend;
+			while (remaining > 0) {
+				int read = is.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+				if (read < 0) {
+					break;
+				}
+				os.write(buffer, 0, read);
+				remaining -= read;
+			}
+			os.flush();
+		}
+		// jdk http server drops the connection if not all bytes were written
+		exchange.close();
+	}
+
+	// manifest is "container/prefix"
+	private File concatenate(String manifest) throws IOException, OssException {
+		int containerEnd = manifest.indexOf('/');
+		FileOssClient storage = getStorage(manifest.substring(0, containerEnd));
+		File result = File.createTempFile("manifest", ".tmp", tempDir);
+		ListRequest req = new ListRequest();
+		req.setPrefix(manifest.substring(containerEnd));
+		List<FileEntry> segments = storage.listFiles(req);
+		Collections.sort(segments, Comparator.comparing(FileEntry::getName));
+		try (OutputStream os = new FileOutputStream(result)) {
+			for (FileEntry cur : segments) {
+				Files.copy(storage.getFile(cur.getName()).toPath(), os);
+			}
+		}
+		return result;
+	}
+
+	private void handleDelete(HttpExchange exchange, String container, String object) throws IOException {
+		FileOssClient storage = getStorage(container);
+		if (!storage.getFile("/" + object).isFile()) {
+			reply(exchange, 404);
+			return;
+		}
+		try {
+			storage.delete("/" + object);
+			reply(exchange, 204);
+		} catch (OssException e) {
+			reply(exchange, e.getCode());
+		}
+	}
+
+	private void handleBulkDelete(HttpExchange exchange) throws IOException {
+		int deleted = 0;
+		int notFound = 0;
+		JsonArray errors = new JsonArray();
+		try (BufferedReader r = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
+			String curLine;
+			while ((curLine = r.readLine()) != null) {
+				curLine = URLDecoder.decode(curLine.trim(), StandardCharsets.UTF_8);
+				if (curLine.isEmpty()) {
+					continue;
+				}
+				// "/container/object"
+				int containerEnd = curLine.indexOf('/', 1);
+				if (containerEnd < 0) {
+					errors.add(Json.array(curLine, "400 Bad Request"));
+					continue;
+				}
+				FileOssClient storage = getStorage(curLine.substring(1, containerEnd));
+				String object = curLine.substring(containerEnd);
+				if (!storage.getFile(object).isFile()) {
+					notFound++;
+					continue;
+				}
+				try {
+					storage.delete(object);
+					deleted++;
+				} catch (OssException e) {
+					errors.add(Json.array(curLine, e.getCode() + " " + e.getMessage()));
+				}
+			}
+		}
+		JsonObject result = new JsonObject();
+		result.add("Number Deleted", deleted);
+		result.add("Number Not Found", notFound);
+		result.add("Errors", errors);
+		result.add("Response Status", errors.isEmpty() ? "200 OK" : "400 Bad Request");
+		replyJson(exchange, result.toString());
+	}
+
+	private void handleList(HttpExchange exchange, String container, Map<String, String> query) throws IOException, OssException {
+		FileOssClient storage = getStorage(container);
+		int limit = 10000;
+		if (query.containsKey("limit")) {
+			limit = Math.min(limit, Integer.parseInt(query.get("limit")));
+		}
+		String prefix = query.get("prefix");
+		if (prefix == null && query.containsKey("path")) {
+			// path=a/b is prefix=a/b/ with delimiter=/
+			prefix = query.get("path").isEmpty() ? "" : query.get("path") + "/";
+			query.put("delimiter", "/");
+		}
+		String delimiter = query.get("delimiter");
+		String marker = query.get("marker");
+		JsonArray result = new JsonArray();
+		String lastSubdir = null;
+		while (result.size() < limit) {
+			ListRequest req = new ListRequest();
+			if (prefix != null) {
+				req.setPrefix("/" + prefix);
+			}
+			if (marker != null) {
+				req.setMarker("/" + marker);
+			}
+			List<FileEntry> page = storage.listFiles(req);
+			if (page.isEmpty()) {
+				break;
+			}
+			for (FileEntry cur : page) {
+				String name = cur.getName().substring(1);
+				marker = name;
+				if (delimiter != null) {
+					int index = name.indexOf(delimiter, prefix != null ? prefix.length() : 0);
+					if (index >= 0) {
+						String subdir = name.substring(0, index + delimiter.length());
+						if (!subdir.equals(lastSubdir)) {
+							lastSubdir = subdir;
+							result.add(Json.object().add("subdir", subdir));
+						}
+						if (result.size() >= limit) {
+							break;
+						}
+						continue;
+					}
+				}
+				File file = storage.getFile(cur.getName());
+				JsonObject entry = new JsonObject();
+				entry.add("name", name);
+				entry.add("bytes", cur.getBytes());
+				entry.add("hash", md5(file));
+				String contentType = storage.stat(cur.getName()).getContentType();
+				entry.add("content_type", contentType != null ? contentType : "application/octet-stream");
+				entry.add("last_modified", formatSwiftDate(file.lastModified()));
+				result.add(entry);
+				if (result.size() >= limit) {
+					break;
+				}
+			}
+		}
+		if (result.isEmpty()) {
+			reply(exchange, 204);
+			return;
+		}
+		replyJson(exchange, result.toString());
+	}
+
+	private boolean isAuthorized(HttpExchange exchange) {
+		String token = exchange.getRequestHeaders().getFirst("X-Auth-Token");
+		if (token == null) {
+			return false;
+		}
+		Long validUntil = tokens.get(token);
+		if (validUntil == null) {
+			return false;
+		}
+		if (System.currentTimeMillis() > validUntil) {
+			expiredTokens.incrementAndGet();
+			tokens.remove(token);
+			return false;
+		}
+		return true;
+	}
+
+	private boolean shouldFail() {
+		if (errorRate <= 0.0) {
+			return false;
+		}
+		synchronized (random) {
+			return random.nextDouble() < errorRate;
+		}
+	}
+
+	private static Map<String, String> parseQuery(String rawQuery) {
+		Map<String, String> result = new HashMap<>();
+		if (rawQuery == null) {
+			return result;
+		}
+		for (String cur : rawQuery.split("&")) {
+			int index = cur.indexOf('=');
+			if (index < 0) {
+				result.put(URLDecoder.decode(cur, StandardCharsets.UTF_8), "");
+			} else {
+				result.put(URLDecoder.decode(cur.substring(0, index), StandardCharsets.UTF_8), URLDecoder.decode(cur.substring(index + 1), StandardCharsets.UTF_8));
+			}
+		}
+		return result;
+	}
+
+	private static String md5(File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		try (InputStream is = new FileInputStream(file)) {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = is.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+			}
+		}
+		StringBuilder result = new StringBuilder();
+		for (byte cur : digest.digest()) {
+			result.append(String.format("%02x", cur));
+		}
+		return result.toString();
+	}
+
+	private static String formatSwiftDate(long millis) {
+		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'000'", Locale.US);
+		sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return sdf.format(new Date(millis));
+	}
+
+	private static String formatHttpDate(long millis) {
+		SimpleDateFormat sdf = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+		sdf.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return sdf.format(new Date(millis));
+	}
+
+	private static void replyJson(HttpExchange exchange, String json) throws IOException {
+		byte[] body = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(body);
+		}
+		exchange.close();
+	}
+
+	private static void reply(HttpExchange exchange, int statusCode) throws IOException {
+		// jdk http server closes keep-alive connection if request body was not
+		// fully read before response without content
+		exchange.getRequestBody().close();
+		exchange.sendResponseHeaders(statusCode, -1);
+		exchange.close();
+	}
+
+	/**
+	 * @param container - container name
+	 * @return storage of the container. Created if not exist
+	 */
+	public FileOssClient getStorage(String container) {
+		return containers.computeIfAbsent(container, name -> {
+			FileOssClient result = new FileOssClient();
+			result.setBasePath(new File(dataDir, name).getAbsolutePath());
+			result.start();
+			return result;
+		});
+	}
+
+	public long getRequests() {
+		return requests.get();
+	}
+
+	public long getInjectedErrors() {
+		return injectedErrors.get();
+	}
+
+	public long getExpiredTokens() {
+		return expiredTokens.get();
+	}
+
+	public long getCopies() {
+		return copies.get();
+	}
+
+	/**
+	 * @param object - "container/object"
+	 * @return X-Delete-At of the object in seconds or null
+	 */
+	public Long getDeleteAt(String object) {
+		return expirations.get(object);
+	}
+
+	public long getPuts() {
+		return puts.get();
+	}
+
+	/**
+	 * @param maxBytesPerResponse - send only first N bytes of the body and
+	 *                            drop connection. 0 to disable
+	 */
+	public void setMaxBytesPerResponse(long maxBytesPerResponse) {
+		this.maxBytesPerResponse = maxBytesPerResponse;
+	}
+
+	/**
+	 * @param failPutsAfter - reply 503 to all PUT requests after N successful
+	 *                      ones. -1 to disable
+	 */
+	public void setFailPutsAfter(long failPutsAfter) {
+		this.failPutsAfter = failPutsAfter;
+	}
+
+	public void setLatencyMillis(long latencyMillis) {
+		this.latencyMillis = latencyMillis;
+	}
+
+	public void setErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+	}
+
+	public void setTokenTtlMillis(long tokenTtlMillis) {
+		this.tokenTtlMillis = tokenTtlMillis;
+	}
+
+	public void setSeed(long seed) {
+		this.random = new Random(seed);
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+}
@@ -0,0 +1,129 @@
+package ru.r2cloud.ossclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SyncEngineTest {
+
+	private FileOssClient source;
+	private FileOssClient destination;
+	private SyncEngine engine;
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testSync() throws Exception {
+		source.submit(createTempFile("a"), "/a/1.txt");
+		source.submit(createTempFile("bb"), "/b/2.txt");
+		source.submit(createTempFile("c"), "/c/3.txt");
+		destination.submit(createTempFile("b"), "/b/2.txt");
+		destination.submit(createTempFile("d"), "/d/4.txt");
+
+		SyncResult result = engine.sync();
+		assertEquals(3, result.getUploaded());
+		assertEquals(4, result.getUploadedBytes());
+		assertEquals(1, result.getDeleted());
+		assertEquals(0, result.getFailed());
+
+		List<FileEntry> entries = destination.listFiles(new ListRequest());
+		assertEquals(3, entries.size());
+		assertEquals("/a/1.txt", entries.get(0).getName());
+		assertEquals("/b/2.txt", entries.get(1).getName());
+		assertEquals(2, entries.get(1).getBytes());
+		assertEquals("/c/3.txt", entries.get(2).getName());
+
+		result = engine.sync();
+		assertEquals(0, result.getUploaded());
+		assertEquals(0, result.getDeleted());
+		assertEquals(3, result.getUnchanged());
+	}
+
+	@Test
+	public void testInterrupted() throws Exception {
+		source.submit(createTempFile("a"), "/a/1.txt");
+		Thread.currentThread().interrupt();
+		try {
+			engine.sync();
+			fail("exception expected");
+		} catch (OssException e) {
+			assertEquals(OssException.INTERNAL_SERVER_ERROR, e.getCode());
+		} finally {
+			// clear the flag for the next tests
+			Thread.interrupted();
+		}
+		assertEquals(0, destination.listFiles(new ListRequest()).size());
+	}
+
+	@Test
+	public void testDryRun() throws Exception {
+		source.submit(createTempFile("a"), "/a/1.txt");
+		destination.submit(createTempFile("d"), "/d/4.txt");
+		engine.setDryRun(true);
+
+		SyncResult result = engine.sync();
+		assertEquals(1, result.getUploaded());
+		assertEquals(1, result.getDeleted());
+
+		List<FileEntry> entries = destination.listFiles(new ListRequest());
+		assertEquals(1, entries.size());
+		assertEquals("/d/4.txt", entries.get(0).getName());
+	}
+
+	@Test
+	public void testModified() {
+		FileEntry src = new FileEntry();
+		src.setBytes(1);
+		src.setLastModified("2021-01-01T10:00:00.000000");
+		FileEntry dst = new FileEntry();
+		dst.setBytes(1);
+		dst.setLastModified("2021-01-01T11:00:00.000000");
+		assertFalse(SyncEngine.isModified(src, dst));
+		src.setLastModified("2021-01-01T12:00:00.000000");
+		assertTrue(SyncEngine.isModified(src, dst));
+		src.setHash("1");
+		dst.setHash("1");
+		assertFalse(SyncEngine.isModified(src, dst));
+		dst.setBytes(2);
+		assertTrue(SyncEngine.isModified(src, dst));
+	}
+
+	@Before
+	public void start() throws Exception {
+		source = new FileOssClient();
+		source.setBasePath(tempFolder.newFolder().getAbsolutePath());
+		source.start();
+
+		destination = new FileOssClient();
+		destination.setBasePath(tempFolder.newFolder().getAbsolutePath());
+		destination.start();
+
+		engine = new SyncEngine();
+		engine.setSource(source);
+		engine.setDestination(destination);
+		engine.setDeleteExtraneous(true);
+		engine.setPageSize(1);
+		engine.setTempDirectory(tempFolder.getRoot().getAbsolutePath());
+	}
+
+	private File createTempFile(String data) throws IOException {
+		File tempFile = new File(tempFolder.getRoot(), UUID.randomUUID().toString());
+		try (FileWriter fw = new FileWriter(tempFile)) {
+			fw.append(data);
+		}
+		return tempFile;
+	}
+}
@@ -0,0 +1,248 @@
+package ru.r2cloud.ossclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WriteBehindOssClientTest {
+
+	private FileOssClient remote;
+	private DelegatingOssClient unreliableRemote;
+	private WriteBehindOssClient client;
+	private File basePath;
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testSubmitWhenUnavailable() throws Exception {
+		unreliableRemote.setFailing(true);
+		String data = UUID.randomUUID().toString();
+		client.submit(createTempFile(data), "/1.txt");
+		assertEquals(1, client.getQueueDepth());
+		// served from the staging area
+		assertEquals(data, download(client, "/1.txt"));
+
+		unreliableRemote.setFailing(false);
+		awaitDrained();
+		assertEquals(data, download(remote, "/1.txt"));
+	}
+
+	@Test
+	public void testReplayAfterRestart() throws Exception {
+		unreliableRemote.setFailing(true);
+		String data = UUID.randomUUID().toString();
+		client.submit(createTempFile(data), "/1.txt");
+		client.submit(createTempFile(UUID.randomUUID().toString()), "/2.txt");
+		client.delete("/2.txt");
+		client.stop();
+
+		unreliableRemote.setFailing(false);
+		assertEquals(0, remote.listFiles(new ListRequest()).size());
+		client = createClient();
+		awaitDrained();
+		assertEquals(data, download(remote, "/1.txt"));
+		assertEquals(1, remote.listFiles(new ListRequest()).size());
+	}
+
+	@Test
+	public void testSupersede() throws Exception {
+		unreliableRemote.setFailing(true);
+		client.submit(createTempFile(UUID.randomUUID().toString()), "/1.txt");
+		String data = UUID.randomUUID().toString();
+		client.submit(createTempFile(data), "/1.txt");
+		assertTrue(client.getQueueDepth() <= 2);
+		unreliableRemote.setFailing(false);
+		awaitDrained();
+		assertEquals(data, download(remote, "/1.txt"));
+	}
+
+	@Test
+	public void testStopDuringUpload() throws Exception {
+		client.stop();
+		CountDownLatch started = new CountDownLatch(1);
+		client = createClient(new DelegatingOssClient(remote) {
+			@Override
+			public void submit(File file, String path, String contentType, Map<String, String> metadata) throws OssException {
+				started.countDown();
+				try {
+					Thread.sleep(10_000);
+				} catch (InterruptedException e) {
+					// return normally without upload
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		String data = UUID.randomUUID().toString();
+		client.submit(createTempFile(data), "/1.txt");
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		client.stop();
+
+		client = createClient();
+		awaitDrained();
+		assertEquals(data, download(remote, "/1.txt"));
+	}
+
+	@Test
+	public void testExpiry() throws Exception {
+		remote.submit(createTempFile("old"), "/2.txt");
+		unreliableRemote.setFailing(true);
+		client.submit(createTempFile("1"), "/1.txt", "text/plain", Collections.singletonMap("station", "ABC"), Instant.now().plus(Duration.ofHours(1)));
+		client.submit(createTempFile("2"), "/2.txt", Instant.now().minusSeconds(1));
+		assertEquals("text/plain", client.stat("/1.txt").getContentType());
+		try {
+			client.stat("/2.txt");
+			fail("exception expected");
+		} catch (OssException e) {
+			assertEquals(OssException.NOT_FOUND, e.getCode());
+		}
+		// expiration survives restart
+		client.stop();
+		client = createClient();
+		unreliableRemote.setFailing(false);
+		awaitDrained();
+		FileEntry entry = remote.stat("/1.txt");
+		assertEquals("text/plain", entry.getContentType());
+		assertEquals("ABC", entry.getMetadata().get("station"));
+		// expired before upload and previous version removed
+		assertEquals(1, remote.listFiles(new ListRequest()).size());
+	}
+
+	@Test
+	public void testPermanentFailure() throws Exception {
+		client.stop();
+		client = createClient(new DelegatingOssClient(remote) {
+			@Override
+			public void submit(File file, String path, String contentType, Map<String, String> metadata, Instant expiresAt) throws OssException {
+				throw new UnsupportedOperationException("expiration is not supported");
+			}
+
+			@Override
+			public void delete(String path) throws OssException {
+				throw new OssException(400, "bad request");
+			}
+		});
+		client.submit(createTempFile("1"), "/1.txt", Duration.ofHours(1));
+		client.delete("/2.txt");
+		// dropped instead of retried forever
+		awaitDrained();
+		assertEquals(0, remote.listFiles(new ListRequest()).size());
+	}
+
+	@Test
+	public void testMetadataInSidecarAfterRestart() throws Exception {
+		client.stop();
+		client = createClient(unreliableRemote, true);
+		unreliableRemote.setFailing(true);
+		client.submit(createTempFile("1"), "/1.txt", "text/plain", Collections.singletonMap("station", "ABC"));
+		client.stop();
+
+		client = createClient(unreliableRemote, true);
+		unreliableRemote.setFailing(false);
+		awaitDrained();
+		FileEntry entry = remote.stat("/1.txt");
+		assertEquals("text/plain", entry.getContentType());
+		assertEquals("ABC", entry.getMetadata().get("station"));
+		// sidecar is removed together with the staged file
+		for (String cur : new File(basePath, "staging").list()) {
+			assertFalse(cur, cur.startsWith("."));
+		}
+	}
+
+	@Test(expected = OssException.class)
+	public void testDownloadDeleted() throws Exception {
+		unreliableRemote.setFailing(true);
+		client.submit(createTempFile(UUID.randomUUID().toString()), "/1.txt");
+		client.delete("/1.txt");
+		download(client, "/1.txt");
+	}
+
+	@Before
+	public void start() throws Exception {
+		remote = new FileOssClient();
+		remote.setBasePath(tempFolder.newFolder().getAbsolutePath());
+		remote.start();
+		unreliableRemote = new DelegatingOssClient(remote);
+		basePath = tempFolder.newFolder();
+		client = createClient();
+	}
+
+	@After
+	public void stop() {
+		if (client != null) {
+			client.stop();
+		}
+	}
+
+	private WriteBehindOssClient createClient() throws OssException {
+		return createClient(unreliableRemote);
+	}
+
+	private WriteBehindOssClient createClient(OssClient delegate) throws OssException {
+		return createClient(delegate, false);
+	}
+
+	private WriteBehindOssClient createClient(OssClient delegate, boolean metadataInSidecar) throws OssException {
+		WriteBehindOssClient result = new WriteBehindOssClient();
+		result.setDelegate(delegate);
+		result.setMetadataInSidecar(metadataInSidecar);
+		result.setBasePath(basePath.getAbsolutePath());
+		result.setRetryDelayMillis(10);
+		result.setMaxRetryDelayMillis(50);
+		result.start();
+		return result;
+	}
+
+	private void awaitDrained() throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (client.getQueueDepth() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, client.getQueueDepth());
+		assertEquals(0, client.getOldestPendingAgeMillis());
+	}
+
+	private static String download(OssClient client, String path) throws OssException {
+		List<String> result = new ArrayList<>();
+		client.download(path, is -> {
+			try (BufferedReader r = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+				result.add(r.readLine());
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+		return result.get(0);
+	}
+
+	private File createTempFile(String data) throws IOException {
+		File tempFile = new File(tempFolder.getRoot(), UUID.randomUUID().toString());
+		try (FileWriter fw = new FileWriter(tempFile)) {
+			fw.append(data);
+		}
+		return tempFile;
+	}
+}